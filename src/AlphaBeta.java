@@ -0,0 +1,498 @@
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * computer player that searches the game tree with negamax alpha-beta
+ * and iterative deepening
+ *
+ * the search runs directly on the two bitboards, so making a move is a
+ * couple of mask operations and nothing is allocated per node. each
+ * iteration searches one ply deeper than the last, starting with the
+ * previous principal variation, until the depth limit is reached or the
+ * time budget runs out. the result of the last completed iteration is
+ * returned.
+ *
+ * results are kept in a transposition table keyed by the Zobrist hash,
+ * which is updated move by move as the search goes down the tree.
+ * leaf evaluations can be shared through a PositionCache, where the
+ * symmetric versions of a position (common in the opening) share one score.
+ * with pattern weights set, leaves are scored by a PatternEvaluator,
+ * which the search updates as it plays and takes back each move.
+ *
+ * positions in the opening book (if one is set) are not searched at all,
+ * the best book move is played. once few enough squares are empty the position is handed to an
+ * EndgameSolver, which gets half of the time budget to find the exact
+ * result before falling back to the heuristic search.
+ */
+public class AlphaBeta implements Engine {
+
+    public static final int WIN = 10000; // score of a won game before adding the disc difference
+    public static final int INFINITY = 30000;
+
+    private static final int MAX_PLY = 128;
+    private static final int MOBILITY_WEIGHT = 8;
+    private static final int TIME_CHECK_NODES = 4096;
+    private static final int DEFAULT_TABLE_MB = 16;
+    private static final int DEFAULT_ENDGAME_EMPTIES = 20;
+
+    // static value of owning each square
+    private static final int[] SQUARE_VALUES = {
+        100, -20,  10,   5,   5,  10, -20, 100,
+        -20, -50,  -2,  -2,  -2,  -2, -50, -20,
+         10,  -2,  -1,  -1,  -1,  -1,  -2,  10,
+          5,  -2,  -1,  -1,  -1,  -1,  -2,   5,
+          5,  -2,  -1,  -1,  -1,  -1,  -2,   5,
+         10,  -2,  -1,  -1,  -1,  -1,  -2,  10,
+        -20, -50,  -2,  -2,  -2,  -2, -50, -20,
+        100, -20,  10,   5,   5,  10, -20, 100
+    };
+
+    // SQUARE_VALUES grouped by value so a side can be scored with one popcount per group
+    private static final int[] GROUP_VALUES;
+    private static final long[] GROUP_MASKS;
+
+    static {
+        int[] values = new int[Bitboard.SQUARES];
+        long[] masks = new long[Bitboard.SQUARES];
+        int n = 0;
+        for (int sq = 0; sq < Bitboard.SQUARES; sq++) {
+            int g = 0;
+            while (g < n && values[g] != SQUARE_VALUES[sq]) {
+                g++;
+            }
+            if (g == n) {
+                values[n++] = SQUARE_VALUES[sq];
+            }
+            masks[g] |= 1L << sq;
+        }
+        GROUP_VALUES = Arrays.copyOf(values, n);
+        GROUP_MASKS = Arrays.copyOf(masks, n);
+    }
+
+    private final int maxDepth;
+    private final long timeLimitMillis;
+    private final TranspositionTable table;
+    private volatile EndgameSolver solver; // created the first time it is needed
+    private int endgameEmpties = DEFAULT_ENDGAME_EMPTIES;
+    private OpeningBook book;
+    private volatile SearchListener listener;
+    private PositionCache evalCache; // null to evaluate every leaf
+    private PatternEvaluator patterns; // null for the built-in evaluation
+    private final long[] canonical = new long[2];
+
+    private volatile boolean stopRequested;
+    private int firstDepth = 1; // helpers in a parallel search start deeper
+    private boolean stopped;
+    private long deadline;
+    private long nodes;
+    private int rootDepth;
+
+    // triangular principal variation table, pv[ply] holds the best line from ply on
+    private final int[][] pv = new int[MAX_PLY][MAX_PLY];
+    private final int[] pvLength = new int[MAX_PLY];
+    private final int[] prevPv = new int[MAX_PLY];
+    private int prevPvLength;
+    private boolean followPv;
+
+    // move lists for each ply so move ordering does not allocate
+    private final int[][] moveList = new int[MAX_PLY][Bitboard.SQUARES];
+    private final int[][] moveScores = new int[MAX_PLY][Bitboard.SQUARES];
+
+    /**
+     * @param maxDepth deepest iteration to search, in plies
+     * @param timeLimitMillis time budget per move, 0 for no limit
+     */
+    public AlphaBeta(int maxDepth, long timeLimitMillis) {
+        this(maxDepth, timeLimitMillis, new TranspositionTable(DEFAULT_TABLE_MB));
+    }
+    
+    /**
+     * @param maxDepth deepest iteration to search, in plies
+     * @param timeLimitMillis time budget per move, 0 for no limit
+     * @param table transposition table to use, kept between searches
+     */
+    public AlphaBeta(int maxDepth, long timeLimitMillis, TranspositionTable table) {
+        if (maxDepth < 1) {
+            throw new IllegalArgumentException("depth must be at least 1");
+        }
+        this.maxDepth = Math.min(maxDepth, MAX_PLY / 2);
+        this.timeLimitMillis = timeLimitMillis;
+        this.table = table;
+    }
+
+    public SearchResult think(Position position) {
+        clearStop();
+        return thinkUnlessStopped(position);
+    }
+
+    public SearchResult thinkUnlessStopped(Position position) {
+        table.newSearch();
+        return search(position);
+    }
+    
+    /**
+     * runs the iterative deepening search, without clearing a pending
+     * stop request or starting a new table generation (ParallelSearch
+     * does that once for all its threads)
+     */
+    SearchResult search(Position position) {
+        long start = System.currentTimeMillis();
+        deadline = timeLimitMillis > 0 ? start + timeLimitMillis : Long.MAX_VALUE;
+        stopped = false;
+        nodes = 0;
+        prevPvLength = 0;
+
+        boolean black = position.getCurrentPlayer();
+        long own = black ? position.getBlack() : position.getWhite();
+        long opp = black ? position.getWhite() : position.getBlack();
+        long hash = Zobrist.hash(position);
+        int empties = position.getEmpties();
+
+        if (book != null) {
+            List<OpeningBook.Entry> entries = book.lookup(position);
+            if (!entries.isEmpty()) {
+                OpeningBook.Entry e = entries.get(0);
+                return new SearchResult(e.getMove(), e.getScore(), 0, new int[] {e.getMove()},
+                        0, System.currentTimeMillis() - start);
+            }
+        }
+
+        if (empties <= endgameEmpties) {
+            if (solver == null) {
+                solver = new EndgameSolver();
+            }
+            long solveDeadline = timeLimitMillis > 0 ? start + timeLimitMillis / 2 : Long.MAX_VALUE;
+            // stop may have been called before the solver existed
+            SearchResult exact = stopRequested ? null : solver.solve(position, solveDeadline);
+            if (exact != null) {
+                nodes = solver.getNodes();
+                return new SearchResult(exact.getBestMove(), discScore(exact.getScore()),
+                        exact.getDepth(), exact.getPv(), nodes, exact.getTimeMillis());
+            }
+            nodes = solver.getNodes();
+        }
+
+        if (patterns != null) {
+            patterns.setPosition(position.getBlack(), position.getWhite());
+        }
+        SearchResult best = null;
+        for (rootDepth = Math.min(firstDepth, maxDepth); rootDepth <= maxDepth; rootDepth++) {
+            followPv = true;
+            int score = negamax(own, opp, black, hash, rootDepth, 0, -INFINITY, INFINITY);
+            if (stopped) {
+                break;
+            }
+
+            prevPvLength = pvLength[0];
+            System.arraycopy(pv[0], 0, prevPv, 0, prevPvLength);
+            int[] line = Arrays.copyOf(prevPv, prevPvLength);
+            int move = prevPvLength > 0 ? prevPv[0] : Position.PASS;
+            best = new SearchResult(move, score, rootDepth, line, nodes,
+                    System.currentTimeMillis() - start);
+            SearchListener l = listener;
+            if (l != null) {
+                l.progress(best);
+            }
+
+            // every line already reaches the end of the game
+            if (rootDepth >= empties) {
+                break;
+            }
+            // the next iteration would not finish in time
+            long now = System.currentTimeMillis();
+            if (timeLimitMillis > 0 && now - start > timeLimitMillis / 2) {
+                break;
+            }
+        }
+        return best;
+    }
+
+    public void stop() {
+        stopRequested = true;
+        EndgameSolver s = solver;
+        if (s != null) {
+            s.stop();
+        }
+    }
+    
+    public void setListener(SearchListener listener) {
+        this.listener = listener;
+    }
+    
+    public void clearStop() {
+        stopRequested = false;
+        EndgameSolver s = solver;
+        if (s != null) {
+            s.clearStop();
+        }
+    }
+    
+    /**
+     * sets how many empty squares are left when the exact endgame
+     * solver takes over, 0 to never use it
+     */
+    public void setEndgameEmpties(int empties) {
+        endgameEmpties = empties;
+    }
+    
+    /**
+     * sets the cache leaf evaluations are kept in, null for none. it
+     * can be shared with other searches using the same evaluation
+     */
+    public void setEvalCache(PositionCache cache) {
+        this.evalCache = cache;
+    }
+    
+    /**
+     * sets the pattern weights leaves are scored with, null for the
+     * built-in evaluation
+     */
+    public void setWeights(PatternEvaluator.Weights weights) {
+        this.patterns = weights == null ? null : new PatternEvaluator(weights);
+    }
+    
+    /**
+     * sets the opening book to play from, null for none
+     */
+    public void setBook(OpeningBook book) {
+        this.book = book;
+    }
+    
+    void setFirstDepth(int depth) {
+        firstDepth = depth;
+    }
+
+    /**
+     * returns the score of the position for the player owning own,
+     * searching depth plies ahead
+     * 
+     * @param black true if own are the black discs
+     * @param hash Zobrist hash of the position
+     */
+    private int negamax(long own, long opp, boolean black, long hash, 
+            int depth, int ply, int alpha, int beta) {
+        pvLength[ply] = ply;
+        nodes++;
+        // the first iteration always completes so there is a move to return
+        if ((nodes & (TIME_CHECK_NODES - 1)) == 0 && rootDepth > firstDepth) {
+            if (stopRequested || System.currentTimeMillis() >= deadline) {
+                stopped = true;
+            }
+        }
+        if (stopped) {
+            return 0;
+        }
+
+        long moves = Bitboard.legalMoves(own, opp);
+        if (moves == 0) {
+            if (Bitboard.legalMoves(opp, own) == 0) {
+                return finalScore(own, opp);
+            }
+            // pass, does not use up depth
+            int score = -negamax(opp, own, !black, hash ^ Zobrist.SIDE, 
+                    depth, ply + 1, -beta, -alpha);
+            pv[ply][ply] = Position.PASS;
+            copyPv(ply);
+            return score;
+        }
+        if (depth == 0 || ply >= MAX_PLY - 1) {
+            return cachedEvaluate(own, opp, black, moves);
+        }
+
+        int ttMove = TranspositionTable.NO_MOVE;
+        long data = table.probe(hash);
+        if (data != 0) {
+            ttMove = TranspositionTable.move(data);
+            // only cut off in null-window nodes, so principal variation
+            // nodes always search and keep a full line
+            if (beta - alpha == 1 && TranspositionTable.depth(data) >= depth) {
+                int score = TranspositionTable.score(data);
+                int flag = TranspositionTable.flag(data);
+                if (flag == TranspositionTable.EXACT
+                        || (flag == TranspositionTable.LOWER && score >= beta)
+                        || (flag == TranspositionTable.UPPER && score <= alpha)) {
+                    return score;
+                }
+            }
+        }
+
+        int alphaOrig = alpha;
+        int n = orderMoves(moves, ply, ttMove);
+        int[] list = moveList[ply];
+        int best = -INFINITY;
+        int bestMove = TranspositionTable.NO_MOVE;
+        for (int i = 0; i < n; i++) {
+            int sq = list[i];
+            long flips = Bitboard.flips(own, opp, sq);
+            long newOwn = own | flips | (1L << sq);
+            long newOpp = opp & ~flips;
+            long newHash = Zobrist.move(hash, sq, flips, black) ^ Zobrist.SIDE;
+            if (patterns != null) {
+                patterns.play(sq, flips, black);
+            }
+
+            int score;
+            if (i == 0) {
+                score = -negamax(newOpp, newOwn, !black, newHash, 
+                        depth - 1, ply + 1, -beta, -alpha);
+            } else {
+                // principal variation search: prove the move is worse with a null window
+                score = -negamax(newOpp, newOwn, !black, newHash, 
+                        depth - 1, ply + 1, -alpha - 1, -alpha);
+                if (score > alpha && score < beta) {
+                    score = -negamax(newOpp, newOwn, !black, newHash, 
+                            depth - 1, ply + 1, -beta, -alpha);
+                }
+            }
+            if (patterns != null) {
+                patterns.undo(sq, flips, black);
+            }
+            if (stopped) {
+                return 0;
+            }
+
+            if (score > best) {
+                best = score;
+                bestMove = sq;
+                if (score > alpha) {
+                    alpha = score;
+                    pv[ply][ply] = sq;
+                    copyPv(ply);
+                    if (alpha >= beta) {
+                        break;
+                    }
+                }
+            }
+        }
+        
+        int flag;
+        if (best <= alphaOrig) {
+            flag = TranspositionTable.UPPER;
+        } else if (best >= beta) {
+            flag = TranspositionTable.LOWER;
+        } else {
+            flag = TranspositionTable.EXACT;
+        }
+        table.store(hash, bestMove, depth, flag, best);
+        return best;
+    }
+
+    private void copyPv(int ply) {
+        int len = pvLength[ply + 1];
+        System.arraycopy(pv[ply + 1], ply + 1, pv[ply], ply + 1, len - ply - 1);
+        pvLength[ply] = Math.max(len, ply + 1);
+    }
+
+    /**
+     * fills moveList[ply] with the moves in the order they should be
+     * searched and returns how many there are: the move from the previous
+     * principal variation first, then the best move stored in the
+     * transposition table, then the rest by square value
+     */
+    private int orderMoves(long moves, int ply, int ttMove) {
+        int[] list = moveList[ply];
+        int[] scores = moveScores[ply];
+        int pvMove = -1;
+        if (followPv) {
+            if (ply < prevPvLength && (moves & (1L << prevPv[ply])) != 0) {
+                pvMove = prevPv[ply];
+            } else {
+                followPv = false;
+            }
+        }
+
+        int n = 0;
+        while (moves != 0) {
+            int sq = Long.numberOfTrailingZeros(moves);
+            moves &= moves - 1;
+            int score;
+            if (sq == pvMove) {
+                score = INFINITY;
+            } else if (sq == ttMove) {
+                score = INFINITY - 1;
+            } else {
+                score = SQUARE_VALUES[sq];
+            }
+
+            // insertion sort, best first
+            int i = n++;
+            while (i > 0 && scores[i - 1] < score) {
+                list[i] = list[i - 1];
+                scores[i] = scores[i - 1];
+                i--;
+            }
+            list[i] = sq;
+            scores[i] = score;
+        }
+        return n;
+    }
+
+    /**
+     * the leaf score, looked up in the eval cache by canonical position first
+     */
+    private int cachedEvaluate(long own, long opp, boolean black, long moves) {
+        PositionCache cache = evalCache;
+        if (cache == null) {
+            return leafScore(own, opp, black, moves);
+        }
+        Symmetry.canonical(own, opp, canonical);
+        int score = cache.probe(canonical[0], canonical[1]);
+        if (score == PositionCache.MISS) {
+            score = leafScore(own, opp, black, moves);
+            cache.store(canonical[0], canonical[1], score);
+        }
+        return score;
+    }
+
+    /**
+     * scores a leaf with the pattern evaluator if there is one, moves
+     * being the legal moves of own
+     */
+    private int leafScore(long own, long opp, boolean black, long moves) {
+        return patterns != null ? patterns.evaluate(own, opp, black, moves) : evaluate(own, opp);
+    }
+
+    /**
+     * heuristic score for the player owning own: square values
+     * plus the difference in mobility. subclasses that use an eval
+     * cache must score symmetric positions the same
+     */
+    protected int evaluate(long own, long opp) {
+        int score = 0;
+        for (int g = 0; g < GROUP_MASKS.length; g++) {
+            score += GROUP_VALUES[g] * (Long.bitCount(own & GROUP_MASKS[g])
+                    - Long.bitCount(opp & GROUP_MASKS[g]));
+        }
+        int mobility = Long.bitCount(Bitboard.legalMoves(own, opp))
+                - Long.bitCount(Bitboard.legalMoves(opp, own));
+        return score + MOBILITY_WEIGHT * mobility;
+    }
+
+    /**
+     * score of a finished game for the player owning own. wins and
+     * losses are offset by WIN so they outweigh any heuristic score
+     */
+    public static int finalScore(long own, long opp) {
+        return discScore(Long.bitCount(own) - Long.bitCount(opp));
+    }
+    
+    /**
+     * converts a final disc difference into a search score
+     */
+    public static int discScore(int diff) {
+        if (diff > 0) {
+            return WIN + diff;
+        } else if (diff < 0) {
+            return -WIN + diff;
+        }
+        return 0;
+    }
+
+    public long getNodes() {
+        return nodes;
+    }
+    
+    public TranspositionTable getTable() {
+        return table;
+    }
+}
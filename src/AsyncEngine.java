@@ -0,0 +1,106 @@
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+
+/**
+ * runs an Engine on a background thread, so a caller such as the Swing
+ * event dispatch thread never waits for it
+ *
+ * requestMove starts a search and returns at once. progress and the
+ * result are handed to callbacks run by the callback executor (for
+ * Swing, SwingUtilities::invokeLater, so they run on the EDT). cancel
+ * stops the search, and its callbacks are not run even if they were
+ * already queued, so a cancelled search can never change the game.
+ * methods are meant to be called from one thread, the one the callbacks
+ * run on.
+ */
+public class AsyncEngine {
+
+    private final Engine engine;
+    private final Executor callbacks;
+    private final ExecutorService worker;
+
+    // bumped by every request and cancel, callbacks of older ones are dropped
+    private volatile int generation;
+    private boolean busy;
+
+    public AsyncEngine(Engine engine, Executor callbacks) {
+        this.engine = engine;
+        this.callbacks = callbacks;
+        this.worker = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "engine");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * starts searching position, cancelling any search still running.
+     * onProgress receives each finished iteration, onDone the result
+     */
+    public void requestMove(Position position, Consumer<SearchResult> onProgress,
+            Consumer<SearchResult> onDone) {
+        cancel();
+        final int request = generation;
+        busy = true;
+        worker.execute(() -> {
+            // clear the last search's stop before looking at generation: a
+            // cancel after the check then stops this search when it starts
+            engine.clearStop();
+            // cancelled while it was waiting for the previous search to stop
+            if (generation != request) {
+                return;
+            }
+            engine.setListener(r -> deliver(request, onProgress, r));
+            SearchResult result = engine.thinkUnlessStopped(position);
+            engine.setListener(null);
+            deliver(request, r -> {
+                busy = false;
+                onDone.accept(r);
+            }, result);
+        });
+    }
+
+    private void deliver(int request, Consumer<SearchResult> callback, SearchResult result) {
+        callbacks.execute(() -> {
+            if (generation == request) {
+                callback.accept(result);
+            }
+        });
+    }
+
+    /**
+     * stops the running search, if any, and drops its callbacks
+     */
+    public void cancel() {
+        generation++;
+        if (busy) {
+            busy = false;
+            engine.stop();
+        }
+    }
+
+    /**
+     * returns true from requestMove until the result is delivered or
+     * the search is cancelled
+     */
+    public boolean isBusy() {
+        return busy;
+    }
+
+    public Engine getEngine() {
+        return engine;
+    }
+
+    /**
+     * cancels the search and stops the background thread (and the
+     * engine's own threads), this cannot be used afterwards
+     */
+    public void shutdown() {
+        cancel();
+        // after the search on the worker has returned
+        worker.execute(engine::shutdown);
+        worker.shutdown();
+    }
+}
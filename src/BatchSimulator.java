@@ -0,0 +1,320 @@
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * plays thousands of games side by side, one ply of every game per call,
+ * for Monte Carlo rollouts and generating training positions
+ *
+ * the games are kept in parallel primitive arrays (struct of arrays): a
+ * long for each colour's discs, whose turn it is and a random number
+ * state per game, so a step walks through memory in order and nothing is
+ * allocated per move. a step plays a random move (xorshift, per game so
+ * results do not depend on how the games are split between threads), a
+ * move chosen by a Policy, or moves supplied by the caller. a player with
+ * no move passes, and a game is over once neither player can move.
+ *
+ * run from the command line to measure throughput:
+ *
+ *   java BatchSimulator [games=N] [seconds=S] [threads=N]
+ */
+public final class BatchSimulator {
+
+    /**
+     * chooses a move for one game of a batch, must not allocate
+     */
+    public interface Policy {
+        /**
+         * returns a square in moves (never 0) for the player owning own
+         */
+        int choose(int game, long own, long opp, long moves);
+    }
+
+    private final int size;
+    private final long[] black;
+    private final long[] white;
+    private final boolean[] blackToMove;
+    private final boolean[] over;
+    private final long[] random;
+    private int running;
+    private long plies;
+
+    /**
+     * @param games number of games in the batch
+     * @param seed seeds the random moves of every game
+     */
+    public BatchSimulator(int games, long seed) {
+        if (games < 1) {
+            throw new IllegalArgumentException("need at least 1 game");
+        }
+        size = games;
+        black = new long[games];
+        white = new long[games];
+        blackToMove = new boolean[games];
+        over = new boolean[games];
+        random = new long[games];
+        Arrays.fill(over, true); // none running until set
+        for (int g = 0; g < games; g++) {
+            // splitmix64, so neighbouring seeds give unrelated streams
+            long z = seed + (g + 1) * 0x9e3779b97f4a7c15L;
+            z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+            z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+            random[g] = (z ^ (z >>> 31)) | 1;
+        }
+        reset(Position.start());
+    }
+
+    /**
+     * sets every game to position
+     */
+    public void reset(Position position) {
+        for (int g = 0; g < size; g++) {
+            set(g, position);
+        }
+        plies = 0;
+    }
+
+    /**
+     * sets one game to position
+     */
+    public void set(int game, Position position) {
+        boolean wasRunning = !over[game];
+        black[game] = position.getBlack();
+        white[game] = position.getWhite();
+        blackToMove[game] = position.getCurrentPlayer();
+        over[game] = position.isGameOver();
+        if (wasRunning != !over[game]) {
+            running += over[game] ? -1 : 1;
+        }
+    }
+
+    /**
+     * plays a random legal move in every game still running, returns
+     * the number still running afterwards
+     */
+    public int stepRandom() {
+        for (int g = 0; g < size; g++) {
+            if (over[g]) {
+                continue;
+            }
+            boolean b = blackToMove[g];
+            long own = b ? black[g] : white[g];
+            long opp = b ? white[g] : black[g];
+            long moves = Bitboard.legalMoves(own, opp);
+            if (moves == 0) {
+                pass(g, own, opp);
+                continue;
+            }
+            long r = random[g];
+            r ^= r << 13;
+            r ^= r >>> 7;
+            r ^= r << 17;
+            random[g] = r;
+            // the high 32 bits scaled to the number of moves
+            int k = (int) (((r >>> 32) * Long.bitCount(moves)) >>> 32);
+            for (; k > 0; k--) {
+                moves &= moves - 1;
+            }
+            play(g, b, own, opp, Long.numberOfTrailingZeros(moves));
+        }
+        return running;
+    }
+
+    /**
+     * plays the move policy chooses in every game still running, returns
+     * the number still running afterwards
+     */
+    public int step(Policy policy) {
+        for (int g = 0; g < size; g++) {
+            if (over[g]) {
+                continue;
+            }
+            boolean b = blackToMove[g];
+            long own = b ? black[g] : white[g];
+            long opp = b ? white[g] : black[g];
+            long moves = Bitboard.legalMoves(own, opp);
+            if (moves == 0) {
+                pass(g, own, opp);
+                continue;
+            }
+            int sq = policy.choose(g, own, opp, moves);
+            if (sq < 0 || sq >= Bitboard.SQUARES || (moves & (1L << sq)) == 0) {
+                throw new IllegalStateException("policy chose illegal move " + sq
+                        + " in game " + g);
+            }
+            play(g, b, own, opp, sq);
+        }
+        return running;
+    }
+
+    /**
+     * plays moves[g] in every game g still running (Position.PASS, or
+     * anything, where the player to move has to pass), returns the number
+     * still running afterwards
+     *
+     * throws IllegalArgumentException if a move is not legal, the games
+     * before it have been played
+     */
+    public int step(int[] moves) {
+        for (int g = 0; g < size; g++) {
+            if (over[g]) {
+                continue;
+            }
+            boolean b = blackToMove[g];
+            long own = b ? black[g] : white[g];
+            long opp = b ? white[g] : black[g];
+            long legal = Bitboard.legalMoves(own, opp);
+            if (legal == 0) {
+                pass(g, own, opp);
+                continue;
+            }
+            int sq = moves[g];
+            if (sq < 0 || sq >= Bitboard.SQUARES || (legal & (1L << sq)) == 0) {
+                throw new IllegalArgumentException("illegal move " + sq + " in game " + g);
+            }
+            play(g, b, own, opp, sq);
+        }
+        return running;
+    }
+
+    /**
+     * plays random moves until every game is over, returns the number
+     * of moves played
+     */
+    public long playOut() {
+        long before = plies;
+        while (running > 0) {
+            stepRandom();
+        }
+        return plies - before;
+    }
+
+    private void play(int g, boolean b, long own, long opp, int sq) {
+        long flips = Bitboard.flips(own, opp, sq);
+        own |= flips | (1L << sq);
+        opp &= ~flips;
+        black[g] = b ? own : opp;
+        white[g] = b ? opp : own;
+        blackToMove[g] = !b;
+        plies++;
+    }
+
+    private void pass(int g, long own, long opp) {
+        if (Bitboard.legalMoves(opp, own) == 0) {
+            over[g] = true;
+            running--;
+        } else {
+            blackToMove[g] = !blackToMove[g];
+        }
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * returns the number of games not over yet
+     */
+    public int getRunning() {
+        return running;
+    }
+
+    /**
+     * returns the number of moves played since the last reset
+     */
+    public long getPlies() {
+        return plies;
+    }
+
+    public long getBlack(int game) {
+        return black[game];
+    }
+
+    public long getWhite(int game) {
+        return white[game];
+    }
+
+    public boolean isBlackToMove(int game) {
+        return blackToMove[game];
+    }
+
+    public boolean isOver(int game) {
+        return over[game];
+    }
+
+    /**
+     * returns black's discs minus white's in a game
+     */
+    public int getDiscDiff(int game) {
+        return Long.bitCount(black[game]) - Long.bitCount(white[game]);
+    }
+
+    /**
+     * returns one game as a Position (this allocates)
+     */
+    public Position getPosition(int game) {
+        return new Position(black[game], white[game], blackToMove[game]);
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        int games = 4096;
+        double seconds = 5;
+        int threads = Runtime.getRuntime().availableProcessors();
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (eq < 0) {
+                throw new IllegalArgumentException("expected name=value: " + arg);
+            }
+            String name = arg.substring(0, eq);
+            String value = arg.substring(eq + 1);
+            if (name.equals("games")) {
+                games = Integer.parseInt(value);
+            } else if (name.equals("seconds")) {
+                seconds = Double.parseDouble(value);
+            } else if (name.equals("threads")) {
+                threads = Integer.parseInt(value);
+            } else {
+                throw new IllegalArgumentException("unknown option: " + name);
+            }
+        }
+
+        final int batch = games;
+        final long warmupEnd = System.nanoTime() + 1000000000L;
+        final long end = warmupEnd + (long) (seconds * 1e9);
+        AtomicLong totalPlies = new AtomicLong();
+        AtomicLong totalGames = new AtomicLong();
+        Thread[] workers = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            final long seed = i;
+            workers[i] = new Thread(() -> {
+                BatchSimulator sim = new BatchSimulator(batch, seed);
+                Position start = Position.start();
+                boolean measuring = false;
+                while (true) {
+                    long now = System.nanoTime();
+                    if (now >= end) {
+                        break;
+                    }
+                    // the first second of every thread is warm-up, not counted
+                    if (!measuring && now >= warmupEnd) {
+                        measuring = true;
+                    }
+                    sim.reset(start);
+                    long n = sim.playOut();
+                    if (measuring) {
+                        totalPlies.addAndGet(n);
+                        totalGames.addAndGet(batch);
+                    }
+                }
+            }, "batch-" + i);
+            workers[i].start();
+        }
+        for (Thread t : workers) {
+            t.join();
+        }
+        // the last batches run past the end
+        double elapsed = (System.nanoTime() - warmupEnd) / 1e9;
+        System.out.printf("%d threads x %d games: %,d games, %,.0f plies/s, %,.0f plies/s per thread%n",
+                threads, games, totalGames.get(), totalPlies.get() / elapsed,
+                totalPlies.get() / elapsed / threads);
+    }
+}
@@ -0,0 +1,361 @@
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * micro-benchmarks for the game engine, run from the command line:
+ *
+ *   java Benchmarks [name filter]
+ *
+ * each benchmark is warmed up, then measured over several fixed-length
+ * iterations, and reports operations per second (mean and standard
+ * deviation over the iterations) and bytes allocated per operation.
+ * positions come from random games with a fixed seed, so runs are
+ * comparable with each other.
+ */
+public class Benchmarks {
+
+    private static final int WARMUP_ITERATIONS = 3;
+    private static final int ITERATIONS = 5;
+    private static final long ITERATION_NANOS = 1000000000L;
+    private static final int POSITIONS = 256;
+    private static final long SEED = 20201001L;
+
+    // results are added here so the JIT cannot drop the benchmarked code
+    private static volatile long sink;
+
+    /**
+     * one benchmark operation, returns a value that depends on the work done
+     */
+    interface Op {
+        long run(int i);
+    }
+
+    public static void main(String[] args) throws IOException {
+        String filter = args.length > 0 ? args[0] : "";
+        Position[] positions = midgamePositions(POSITIONS);
+
+        if ("validate".contains(filter) || filter.isEmpty()) {
+            final int[] squares = legalSquares(positions);
+            bench("validate (single move flips)", i -> {
+                Position p = positions[i % POSITIONS];
+                return p.flips(squares[i % POSITIONS]);
+            });
+        }
+        if ("legalmoves".contains(filter) || filter.isEmpty()) {
+            bench("legalMoves (full enumeration)", i -> positions[i % POSITIONS].legalMoves());
+        }
+        if ("playturn".contains(filter) || filter.isEmpty()) {
+            final Othello[] games = games(positions);
+            final int[] squares = legalSquares(positions);
+            bench("playTurn + undoMove (mid-game)", i -> {
+                Othello o = games[i % POSITIONS];
+                int sq = squares[i % POSITIONS];
+                o.tryCell(Bitboard.row(sq), Bitboard.col(sq));
+                int result = o.playTurn(o.getMoves());
+                o.undoMove();
+                return result;
+            });
+        }
+        if ("endgame".contains(filter) || filter.isEmpty()) {
+            final Othello[] games = games(positions);
+            bench("endGame", i -> games[i % POSITIONS].endGame());
+        }
+        if ("saveload".contains(filter) || filter.isEmpty()) {
+            final Othello[] games = games(positions);
+            final Path file = Files.createTempFile("othello-bench", ".dat");
+            file.toFile().deleteOnExit();
+            final Othello target = new Othello();
+            bench("save + load round trip", i -> {
+                games[i % POSITIONS].save(file);
+                target.load(file);
+                return target.getP1Score();
+            });
+        }
+        if ("boardsize".contains(filter) || filter.isEmpty()) {
+            // the 8x8 masks against the mailbox used for the other sizes
+            bench("legalMoves 8x8 bitboard", i -> positions[i % POSITIONS].legalMoves());
+            for (int size : new int[] {6, 8, 10, 16}) {
+                final Mailbox[] boards = mailboxPositions(size, POSITIONS);
+                final int[] squares = new int[size * size];
+                bench("legalMoves " + size + "x" + size + " mailbox", i -> {
+                    Mailbox b = boards[i % POSITIONS];
+                    return b.legalMoves((i & 1) == 0 ? Mailbox.BLACK : Mailbox.WHITE, squares);
+                });
+            }
+        }
+        if ("patterns".contains(filter) || filter.isEmpty()) {
+            // the weights do not change the cost, zeros will do
+            PatternEvaluator.Weights weights = new PatternEvaluator.Weights(
+                    new short[PatternEvaluator.PHASES][PatternEvaluator.FEATURES]);
+            final PatternEvaluator[] evaluators = new PatternEvaluator[POSITIONS];
+            final int[] squares = legalSquares(positions);
+            final long[] flips = new long[POSITIONS];
+            for (int i = 0; i < POSITIONS; i++) {
+                evaluators[i] = new PatternEvaluator(weights);
+                evaluators[i].setPosition(positions[i].getBlack(), positions[i].getWhite());
+                flips[i] = positions[i].flips(squares[i]);
+            }
+            bench("pattern evaluate", i -> {
+                Position p = positions[i % POSITIONS];
+                boolean black = p.getCurrentPlayer();
+                return evaluators[i % POSITIONS].evaluate(black ? p.getBlack() : p.getWhite(),
+                        black ? p.getWhite() : p.getBlack(), black);
+            });
+            bench("pattern play + undo", i -> {
+                int k = i % POSITIONS;
+                boolean black = positions[k].getCurrentPlayer();
+                evaluators[k].play(squares[k], flips[k], black);
+                evaluators[k].undo(squares[k], flips[k], black);
+                return k;
+            });
+        }
+        if ("evalcache".contains(filter) || filter.isEmpty()) {
+            evalCache();
+        }
+        if ("perft".contains(filter) || filter.isEmpty()) {
+            Position start = Position.start();
+            long own = start.getBlack();
+            long opp = start.getWhite();
+            for (int depth = 6; depth <= 9; depth++) {
+                long t0 = System.nanoTime();
+                long nodes = perft(own, opp, depth, false);
+                long nanos = System.nanoTime() - t0;
+                System.out.printf("perft %d: %,d leaves in %d ms (%,.0f leaves/s)%n",
+                        depth, nodes, nanos / 1000000, nodes * 1e9 / nanos);
+            }
+        }
+        if ("search".contains(filter) || filter.isEmpty()) {
+            searchScaling(positions[0]);
+        }
+    }
+
+    /**
+     * runs op repeatedly and prints its throughput and allocation rate
+     */
+    private static void bench(String name, Op op) {
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            iteration(op);
+        }
+        double[] rates = new double[ITERATIONS];
+        long ops = 0;
+        long bytes = 0;
+        for (int i = 0; i < ITERATIONS; i++) {
+            long before = allocatedBytes();
+            long[] result = iteration(op);
+            bytes += allocatedBytes() - before;
+            ops += result[0];
+            rates[i] = result[0] * 1e9 / result[1];
+        }
+
+        double mean = 0;
+        for (double r : rates) {
+            mean += r / ITERATIONS;
+        }
+        double var = 0;
+        for (double r : rates) {
+            var += (r - mean) * (r - mean) / ITERATIONS;
+        }
+        System.out.printf("%-34s %,14.0f ops/s  +- %,12.0f  %8.1f bytes/op%n",
+                name, mean, Math.sqrt(var), bytes < 0 ? Double.NaN : (double) bytes / ops);
+    }
+
+    /**
+     * runs op for about ITERATION_NANOS, returns {operations, nanoseconds}
+     */
+    private static long[] iteration(Op op) {
+        long acc = 0;
+        int i = 0;
+        long start = System.nanoTime();
+        long end = start + ITERATION_NANOS;
+        long now;
+        do {
+            for (int k = 0; k < 1024; k++) {
+                acc += op.run(i++);
+            }
+            now = System.nanoTime();
+        } while (now < end);
+        sink += acc;
+        return new long[] {i, now - start};
+    }
+
+    /**
+     * bytes allocated so far by this thread, -1 if the JVM cannot tell
+     */
+    private static long allocatedBytes() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) bean)
+                    .getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+
+    /**
+     * counts the leaves of the game tree to the given depth. a pass counts
+     * as a ply, and finished games count as leaves where they end
+     */
+    static long perft(long own, long opp, int depth, boolean passed) {
+        if (depth == 0) {
+            return 1;
+        }
+        long moves = Bitboard.legalMoves(own, opp);
+        if (moves == 0) {
+            if (passed) {
+                return 1;
+            }
+            return perft(opp, own, depth - 1, true);
+        }
+        if (depth == 1) {
+            return Long.bitCount(moves);
+        }
+        long nodes = 0;
+        while (moves != 0) {
+            int sq = Long.numberOfTrailingZeros(moves);
+            moves &= moves - 1;
+            long flips = Bitboard.flips(own, opp, sq);
+            nodes += perft(opp & ~flips, own | flips | (1L << sq), depth - 1, false);
+        }
+        return nodes;
+    }
+
+    /**
+     * prints time to depth and nodes per second of ParallelSearch
+     * for 1 up to the number of cores
+     */
+    private static void searchScaling(Position position) {
+        int cores = Runtime.getRuntime().availableProcessors();
+        List<Integer> counts = new ArrayList<Integer>();
+        for (int threads = 1; threads < cores; threads *= 2) {
+            counts.add(threads);
+        }
+        counts.add(cores);
+        for (int threads : counts) {
+            ParallelSearch search = new ParallelSearch(threads, 11, 0, 64);
+            // warm up, then measure on a fresh table
+            search.think(position);
+            search.getTable().clear();
+            long t0 = System.nanoTime();
+            SearchResult r = search.think(position);
+            long nanos = System.nanoTime() - t0;
+            search.shutdown();
+            System.out.printf("search %d thread(s): depth %d in %d ms, %,.0f nodes/s%n",
+                    threads, r.getDepth(), nanos / 1000000, r.getNodes() * 1e9 / nanos);
+        }
+    }
+
+    /**
+     * prints the time for fixed depth searches of opening positions with
+     * and without a PositionCache, and how many leaf evaluations it saved
+     */
+    private static void evalCache() {
+        Random random = new Random(SEED);
+        Position[] openings = new Position[16];
+        for (int i = 0; i < openings.length; i++) {
+            Position p = Position.start();
+            for (int ply = i % 8; ply > 0; ply--) {
+                p = p.play(RandomPlayer.pick(p.legalMoves(), random));
+            }
+            openings[i] = p;
+        }
+        PositionCache cache = new PositionCache(16);
+        for (int round = 0; round < 2; round++) {
+            // the first round warms up
+            long plain = 0;
+            long cached = 0;
+            cache.clear();
+            for (Position p : openings) {
+                AlphaBeta search = new AlphaBeta(9, 0);
+                long t0 = System.nanoTime();
+                search.think(p);
+                plain += System.nanoTime() - t0;
+
+                search = new AlphaBeta(9, 0);
+                search.setEvalCache(cache);
+                t0 = System.nanoTime();
+                search.think(p);
+                cached += System.nanoTime() - t0;
+            }
+            if (round == 1) {
+                System.out.printf("eval cache: %,d evaluations, %.0f%% from the cache, "
+                        + "search %d ms without, %d ms with%n", cache.getProbes(),
+                        cache.getHitRate() * 100, plain / 1000000, cached / 1000000);
+            }
+        }
+    }
+
+    /**
+     * returns positions from random games, between 20 and 40 discs played
+     */
+    static Position[] midgamePositions(int n) {
+        Random random = new Random(SEED);
+        List<Position> list = new ArrayList<Position>();
+        while (list.size() < n) {
+            Position p = Position.start();
+            int target = 20 + random.nextInt(21);
+            while (64 - p.getEmpties() < target && !p.isGameOver()) {
+                p = p.play(RandomPlayer.pick(p.legalMoves(), random));
+            }
+            if (p.legalMoves() != 0) {
+                list.add(p);
+            }
+        }
+        return list.toArray(new Position[0]);
+    }
+
+    /**
+     * returns boards of the given size from random games, with a third
+     * to a half of the squares filled
+     */
+    static Mailbox[] mailboxPositions(int size, int n) {
+        Random random = new Random(SEED);
+        int[] moves = new int[size * size];
+        Mailbox[] boards = new Mailbox[n];
+        for (int i = 0; i < n; i++) {
+            Mailbox b = new Mailbox(size);
+            int target = size * size / 3 + random.nextInt(size * size / 6 + 1);
+            int own = Mailbox.BLACK;
+            int passes = 0;
+            while (b.getCount(Mailbox.BLACK) + b.getCount(Mailbox.WHITE) < target && passes < 2) {
+                int count = b.legalMoves(own, moves);
+                if (count == 0) {
+                    passes++;
+                } else {
+                    passes = 0;
+                    b.play(moves[random.nextInt(count)], own);
+                }
+                own = 3 - own;
+            }
+            boards[i] = b;
+        }
+        return boards;
+    }
+
+    /**
+     * one legal move for each position
+     */
+    private static int[] legalSquares(Position[] positions) {
+        Random random = new Random(SEED);
+        int[] squares = new int[positions.length];
+        for (int i = 0; i < positions.length; i++) {
+            squares[i] = RandomPlayer.pick(positions[i].legalMoves(), random);
+        }
+        return squares;
+    }
+
+    private static Othello[] games(Position[] positions) {
+        Othello[] games = new Othello[positions.length];
+        for (int i = 0; i < positions.length; i++) {
+            games[i] = new Othello();
+            games[i].setBoard(Bitboard.toArray(positions[i].getBlack(), positions[i].getWhite()));
+            if (games[i].getCurrentPlayer() != positions[i].getCurrentPlayer()) {
+                games[i].skip();
+            }
+        }
+        return games;
+    }
+}
@@ -0,0 +1,145 @@
+/**
+ * bit-twiddling helpers for the 64-bit board representation
+ *
+ * square index = row * 8 + col, so bit 0 is the top left corner
+ * (row 0, col 0) and bit 63 is the bottom right corner (row 7, col 7).
+ * a position is described by two masks, one for each colour.
+ */
+public final class Bitboard {
+
+    public static final int SIZE = 8;
+    public static final int SQUARES = 64;
+
+    // shift amounts for the 4 axes: horizontal, vertical, diagonal, anti-diagonal
+    private static final int[] SHIFTS = {1, 8, 7, 9};
+
+    // opponent discs that can be part of a run along each axis. discs on the
+    // left/right edge columns can never be in the middle of a horizontal or
+    // diagonal run, so masking them off also stops shifts wrapping around rows
+    private static final long[] MASKS = {
+        0x7e7e7e7e7e7e7e7eL,
+        0xffffffffffffffffL,
+        0x7e7e7e7e7e7e7e7eL,
+        0x7e7e7e7e7e7e7e7eL
+    };
+
+    private Bitboard() {
+    }
+
+    public static int square(int row, int col) {
+        return row * SIZE + col;
+    }
+
+    public static long bit(int row, int col) {
+        return 1L << (row * SIZE + col);
+    }
+
+    public static int row(int square) {
+        return square >>> 3;
+    }
+
+    public static int col(int square) {
+        return square & 7;
+    }
+
+    /**
+     * returns a mask of every empty square where the player owning
+     * the own discs can play (i.e. at least one opponent disc is flipped)
+     */
+    public static long legalMoves(long own, long opp) {
+        long empty = ~(own | opp);
+        long moves = 0L;
+
+        for (int i = 0; i < SHIFTS.length; i++) {
+            int s = SHIFTS[i];
+            long o = opp & MASKS[i];
+
+            // runs of opponent discs starting next to an own disc,
+            // at most 6 long on an 8x8 board
+            long x = (own << s) & o;
+            x |= (x << s) & o;
+            x |= (x << s) & o;
+            x |= (x << s) & o;
+            x |= (x << s) & o;
+            x |= (x << s) & o;
+            moves |= (x << s) & empty;
+
+            x = (own >>> s) & o;
+            x |= (x >>> s) & o;
+            x |= (x >>> s) & o;
+            x |= (x >>> s) & o;
+            x |= (x >>> s) & o;
+            x |= (x >>> s) & o;
+            moves |= (x >>> s) & empty;
+        }
+        return moves;
+    }
+
+    /**
+     * returns the mask of opponent discs that are flipped if the player
+     * owning the own discs plays at square, 0 if none
+     *
+     * does not check that square is empty
+     */
+    public static long flips(long own, long opp, int square) {
+        long m = 1L << square;
+        long flips = 0L;
+
+        for (int i = 0; i < SHIFTS.length; i++) {
+            int s = SHIFTS[i];
+            long o = opp & MASKS[i];
+
+            long f = 0L;
+            long x = m << s;
+            while ((x & o) != 0) {
+                f |= x;
+                x <<= s;
+            }
+            if ((x & own) != 0) {
+                flips |= f;
+            }
+
+            f = 0L;
+            x = m >>> s;
+            while ((x & o) != 0) {
+                f |= x;
+                x >>>= s;
+            }
+            if ((x & own) != 0) {
+                flips |= f;
+            }
+        }
+        return flips;
+    }
+
+    /**
+     * converts a 2D board (0 = empty, 1 = black, 2 = white) into the
+     * mask of squares that hold the given disc
+     */
+    public static long fromArray(int[][] board, int disc) {
+        long mask = 0L;
+        for (int row = 0; row < SIZE; row++) {
+            for (int col = 0; col < SIZE; col++) {
+                if (board[row][col] == disc) {
+                    mask |= bit(row, col);
+                }
+            }
+        }
+        return mask;
+    }
+
+    /**
+     * converts a position back into a 2D board (0 = empty, 1 = black, 2 = white)
+     */
+    public static int[][] toArray(long black, long white) {
+        int[][] board = new int[SIZE][SIZE];
+        for (int sq = 0; sq < SQUARES; sq++) {
+            if ((black & (1L << sq)) != 0) {
+                board[row(sq)][col(sq)] = 1;
+            } else if ((white & (1L << sq)) != 0) {
+                board[row(sq)][col(sq)] = 2;
+            }
+        }
+        return board;
+    }
+}
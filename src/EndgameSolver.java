@@ -0,0 +1,424 @@
+/**
+ * exact endgame search: plays every line out to the end of the game and
+ * returns the final disc difference (discs of the player to move minus
+ * the opponent's, counted the same way as Othello.endGame)
+ *
+ * a player with no legal move passes, and the game ends when neither
+ * player can move. the search is made fast by:
+ * - fastest-first ordering far from the end (moves that leave the
+ *   opponent the fewest replies first), with a transposition table
+ * - parity ordering close to the end (moves in quadrants with an odd
+ *   number of empty squares first)
+ * - dedicated code for the last 3, 2 and 1 empty squares
+ */
+public class EndgameSolver implements Engine {
+
+    private static final int INFINITY = 65;
+    private static final int MAX_EMPTIES = 64;
+    private static final int TABLE_EMPTIES = 9; // use the table from this many empties up
+    private static final int FASTEST_FIRST_EMPTIES = 7; // sort by mobility from this many up
+    private static final int TIME_CHECK_NODES = 16384;
+    private static final int DEFAULT_TABLE_MB = 16;
+
+    private static final long[] QUADRANTS = {
+        0x000000000f0f0f0fL, 0x00000000f0f0f0f0L,
+        0x0f0f0f0f00000000L, 0xf0f0f0f000000000L
+    };
+    private static final long CORNERS = 0x8100000000000081L;
+
+    private final long timeLimitMillis;
+    private final TranspositionTable table;
+
+    private volatile boolean stopRequested;
+    private volatile SearchListener listener;
+    private boolean stopped;
+    private long deadline;
+    private long nodes;
+
+    // move lists for each number of empties so ordering does not allocate
+    private final int[][] moveList = new int[MAX_EMPTIES + 1][Bitboard.SQUARES];
+    private final int[][] moveScores = new int[MAX_EMPTIES + 1][Bitboard.SQUARES];
+
+    /**
+     * @param timeLimitMillis time budget per solve, 0 for no limit
+     */
+    public EndgameSolver(long timeLimitMillis) {
+        this.timeLimitMillis = timeLimitMillis;
+        this.table = new TranspositionTable(DEFAULT_TABLE_MB);
+    }
+
+    public EndgameSolver() {
+        this(0);
+    }
+
+    /**
+     * solves the position exactly. if the time budget runs out or stop is
+     * called before it is solved, returns null
+     */
+    public SearchResult think(Position position) {
+        clearStop();
+        return thinkUnlessStopped(position);
+    }
+
+    public SearchResult thinkUnlessStopped(Position position) {
+        long start = System.currentTimeMillis();
+        SearchResult result = solve(position,
+                timeLimitMillis > 0 ? start + timeLimitMillis : Long.MAX_VALUE);
+        // there are no iterations, so the only progress is the solution
+        SearchListener l = listener;
+        if (l != null && result != null) {
+            l.progress(result);
+        }
+        return result;
+    }
+
+    public void stop() {
+        stopRequested = true;
+    }
+
+    public void setListener(SearchListener listener) {
+        this.listener = listener;
+    }
+    
+    public void clearStop() {
+        stopRequested = false;
+    }
+
+    /**
+     * solves the position, giving up at the deadline (in
+     * System.currentTimeMillis terms)
+     *
+     * @return the best move and its exact disc difference,
+     * or null if the search was stopped
+     */
+    SearchResult solve(Position position, long deadline) {
+        long start = System.currentTimeMillis();
+        this.deadline = deadline;
+        stopped = false;
+        nodes = 0;
+        table.newSearch();
+
+        boolean black = position.getCurrentPlayer();
+        long own = black ? position.getBlack() : position.getWhite();
+        long opp = black ? position.getWhite() : position.getBlack();
+        int empties = position.getEmpties();
+
+        int bestMove = Position.PASS;
+        int bestScore;
+        long moves = Bitboard.legalMoves(own, opp);
+        if (moves == 0) {
+            if (Bitboard.legalMoves(opp, own) == 0) {
+                bestScore = Long.bitCount(own) - Long.bitCount(opp);
+            } else {
+                bestScore = -search(opp, own, empties, -INFINITY, INFINITY);
+            }
+        } else {
+            int n = orderMoves(own, opp, moves, empties, TranspositionTable.NO_MOVE);
+            int[] list = moveList[empties];
+            int alpha = -INFINITY;
+            for (int i = 0; i < n; i++) {
+                int sq = list[i];
+                long flips = Bitboard.flips(own, opp, sq);
+                long newOwn = own | flips | (1L << sq);
+                long newOpp = opp & ~flips;
+
+                int score;
+                if (i == 0) {
+                    score = -search(newOpp, newOwn, empties - 1, -INFINITY, -alpha);
+                } else {
+                    score = -search(newOpp, newOwn, empties - 1, -alpha - 1, -alpha);
+                    if (score > alpha) {
+                        score = -search(newOpp, newOwn, empties - 1, -INFINITY, -score);
+                    }
+                }
+                if (stopped) {
+                    return null;
+                }
+                if (score > alpha) {
+                    alpha = score;
+                    bestMove = sq;
+                }
+            }
+            bestScore = alpha;
+        }
+        if (stopped) {
+            return null;
+        }
+
+        int[] pv = bestMove == Position.PASS ? new int[0] : new int[] {bestMove};
+        return new SearchResult(bestMove, bestScore, empties, pv, nodes,
+                System.currentTimeMillis() - start);
+    }
+
+    /**
+     * returns the exact disc difference for the player owning own, or a
+     * bound on it outside (alpha, beta)
+     */
+    private int search(long own, long opp, int empties, int alpha, int beta) {
+        nodes++;
+        if ((nodes & (TIME_CHECK_NODES - 1)) == 0) {
+            if (stopRequested || System.currentTimeMillis() >= deadline) {
+                stopped = true;
+            }
+        }
+        if (stopped) {
+            return 0;
+        }
+
+        long empty = ~(own | opp);
+        if (empties == 3) {
+            int a = Long.numberOfTrailingZeros(empty);
+            empty &= empty - 1;
+            int b = Long.numberOfTrailingZeros(empty);
+            empty &= empty - 1;
+            int c = Long.numberOfTrailingZeros(empty);
+            return solve3(own, opp, a, b, c, alpha, beta, false);
+        } else if (empties == 2) {
+            int a = Long.numberOfTrailingZeros(empty);
+            empty &= empty - 1;
+            int b = Long.numberOfTrailingZeros(empty);
+            return solve2(own, opp, a, b, alpha, beta, false);
+        } else if (empties == 1) {
+            return solve1(own, opp, Long.numberOfTrailingZeros(empty));
+        } else if (empties == 0) {
+            return Long.bitCount(own) - Long.bitCount(opp);
+        }
+
+        long moves = Bitboard.legalMoves(own, opp);
+        if (moves == 0) {
+            if (Bitboard.legalMoves(opp, own) == 0) {
+                return Long.bitCount(own) - Long.bitCount(opp);
+            }
+            return -search(opp, own, empties, -beta, -alpha);
+        }
+
+        long key = 0L;
+        int ttMove = TranspositionTable.NO_MOVE;
+        if (empties >= TABLE_EMPTIES) {
+            key = hash(own, opp);
+            long data = table.probe(key);
+            if (data != 0) {
+                ttMove = TranspositionTable.move(data);
+                int score = TranspositionTable.score(data);
+                int flag = TranspositionTable.flag(data);
+                if (flag == TranspositionTable.EXACT
+                        || (flag == TranspositionTable.LOWER && score >= beta)
+                        || (flag == TranspositionTable.UPPER && score <= alpha)) {
+                    return score;
+                }
+            }
+        }
+
+        int alphaOrig = alpha;
+        int n = orderMoves(own, opp, moves, empties, ttMove);
+        int[] list = moveList[empties];
+        int best = -INFINITY;
+        int bestMove = TranspositionTable.NO_MOVE;
+        for (int i = 0; i < n; i++) {
+            int sq = list[i];
+            long flips = Bitboard.flips(own, opp, sq);
+            long newOwn = own | flips | (1L << sq);
+            long newOpp = opp & ~flips;
+
+            int score;
+            if (i == 0) {
+                score = -search(newOpp, newOwn, empties - 1, -beta, -alpha);
+            } else {
+                score = -search(newOpp, newOwn, empties - 1, -alpha - 1, -alpha);
+                if (score > alpha && score < beta) {
+                    score = -search(newOpp, newOwn, empties - 1, -beta, -score);
+                }
+            }
+            if (stopped) {
+                return 0;
+            }
+            if (score > best) {
+                best = score;
+                bestMove = sq;
+                if (score > alpha) {
+                    alpha = score;
+                    if (alpha >= beta) {
+                        break;
+                    }
+                }
+            }
+        }
+
+        if (empties >= TABLE_EMPTIES) {
+            int flag;
+            if (best <= alphaOrig) {
+                flag = TranspositionTable.UPPER;
+            } else if (best >= beta) {
+                flag = TranspositionTable.LOWER;
+            } else {
+                flag = TranspositionTable.EXACT;
+            }
+            table.store(key, bestMove, empties, flag, best);
+        }
+        return best;
+    }
+
+    /**
+     * last 3 empty squares, a b and c. squares in a quadrant of their own
+     * (odd parity) are tried first
+     */
+    private int solve3(long own, long opp, int a, int b, int c,
+            int alpha, int beta, boolean passed) {
+        nodes++;
+        // put the square that shares a quadrant with another last
+        if (quadrant(a) == quadrant(b)) {
+            int t = a;
+            a = c;
+            c = t;
+        } else if (quadrant(a) == quadrant(c)) {
+            int t = a;
+            a = b;
+            b = t;
+        }
+
+        int best = -INFINITY;
+        long flips = Bitboard.flips(own, opp, a);
+        if (flips != 0) {
+            best = -solve2(opp & ~flips, own | flips | (1L << a), b, c, -beta, -alpha, false);
+            if (best >= beta) {
+                return best;
+            }
+            alpha = Math.max(alpha, best);
+        }
+        flips = Bitboard.flips(own, opp, b);
+        if (flips != 0) {
+            int score = -solve2(opp & ~flips, own | flips | (1L << b), a, c, -beta, -alpha, false);
+            if (score >= beta) {
+                return score;
+            }
+            best = Math.max(best, score);
+            alpha = Math.max(alpha, score);
+        }
+        flips = Bitboard.flips(own, opp, c);
+        if (flips != 0) {
+            int score = -solve2(opp & ~flips, own | flips | (1L << c), a, b, -beta, -alpha, false);
+            best = Math.max(best, score);
+        }
+
+        if (best == -INFINITY) {
+            if (passed) {
+                return Long.bitCount(own) - Long.bitCount(opp);
+            }
+            return -solve3(opp, own, a, b, c, -beta, -alpha, true);
+        }
+        return best;
+    }
+
+    /**
+     * last 2 empty squares, a and b
+     */
+    private int solve2(long own, long opp, int a, int b, int alpha, int beta, boolean passed) {
+        nodes++;
+        int best = -INFINITY;
+        long flips = Bitboard.flips(own, opp, a);
+        if (flips != 0) {
+            best = -solve1(opp & ~flips, own | flips | (1L << a), b);
+            if (best >= beta) {
+                return best;
+            }
+        }
+        flips = Bitboard.flips(own, opp, b);
+        if (flips != 0) {
+            best = Math.max(best, -solve1(opp & ~flips, own | flips | (1L << b), a));
+        }
+
+        if (best == -INFINITY) {
+            if (passed) {
+                return Long.bitCount(own) - Long.bitCount(opp);
+            }
+            return -solve2(opp, own, a, b, -beta, -alpha, true);
+        }
+        return best;
+    }
+
+    /**
+     * last empty square: whoever can play it does, otherwise the game ends
+     */
+    private int solve1(long own, long opp, int sq) {
+        nodes++;
+        int diff = Long.bitCount(own) - Long.bitCount(opp);
+        long flips = Bitboard.flips(own, opp, sq);
+        if (flips != 0) {
+            return diff + 2 * Long.bitCount(flips) + 1;
+        }
+        flips = Bitboard.flips(opp, own, sq);
+        if (flips != 0) {
+            return diff - 2 * Long.bitCount(flips) - 1;
+        }
+        return diff;
+    }
+
+    /**
+     * fills moveList[empties] with the moves in the order they should be
+     * searched and returns how many there are
+     */
+    private int orderMoves(long own, long opp, long moves, int empties, int ttMove) {
+        int[] list = moveList[empties];
+        int[] scores = moveScores[empties];
+
+        long odd = 0L;
+        if (empties < FASTEST_FIRST_EMPTIES) {
+            long empty = ~(own | opp);
+            for (long q : QUADRANTS) {
+                if ((Long.bitCount(empty & q) & 1) != 0) {
+                    odd |= q;
+                }
+            }
+        }
+
+        int n = 0;
+        while (moves != 0) {
+            int sq = Long.numberOfTrailingZeros(moves);
+            moves &= moves - 1;
+
+            int score;
+            if (sq == ttMove) {
+                score = Integer.MAX_VALUE;
+            } else if (empties >= FASTEST_FIRST_EMPTIES) {
+                // fewest replies first, corners break ties
+                long flips = Bitboard.flips(own, opp, sq);
+                long replies = Bitboard.legalMoves(opp & ~flips, own | flips | (1L << sq));
+                score = -16 * Long.bitCount(replies) - 4 * Long.bitCount(replies & CORNERS);
+                if (((1L << sq) & CORNERS) != 0) {
+                    score += 8;
+                }
+            } else {
+                score = (odd & (1L << sq)) != 0 ? 1 : 0;
+            }
+
+            // insertion sort, best first
+            int i = n++;
+            while (i > 0 && scores[i - 1] < score) {
+                list[i] = list[i - 1];
+                scores[i] = scores[i - 1];
+                i--;
+            }
+            list[i] = sq;
+            scores[i] = score;
+        }
+        return n;
+    }
+
+    private static int quadrant(int sq) {
+        return (Bitboard.row(sq) >> 2) * 2 + (Bitboard.col(sq) >> 2);
+    }
+
+    /**
+     * hash of the position from the point of view of the player to move.
+     * the colours do not matter for the final disc difference, so unlike
+     * Zobrist this only looks at whose discs are whose
+     */
+    private static long hash(long own, long opp) {
+        long h = own * 0x9e3779b97f4a7c15L ^ Long.rotateLeft(opp * 0xc2b2ae3d27d4eb4fL, 31);
+        return h ^ (h >>> 29);
+    }
+
+    public long getNodes() {
+        return nodes;
+    }
+}
@@ -0,0 +1,51 @@
+/**
+ * a computer player
+ *
+ * GameBoard asks the engine for a move whenever it is the engine's turn.
+ * think may take a while, stop can be called from another thread to 
+ * make it return its best move so far.
+ */
+public interface Engine {
+
+    /**
+     * searches the position and returns the best move found for
+     * the player to move
+     */
+    SearchResult think(Position position);
+
+    /**
+     * asks a running think call to return as soon as possible
+     */
+    void stop();
+
+    /**
+     * clears a stop request left over from an earlier search, which
+     * think does itself before it starts
+     */
+    default void clearStop() {
+    }
+
+    /**
+     * as think, but keeps a stop request made since the last clearStop,
+     * so a caller that clears first and then starts the search cannot
+     * lose a stop made in between (see AsyncEngine). engines that
+     * return at once need not tell the two apart
+     */
+    default SearchResult thinkUnlessStopped(Position position) {
+        return think(position);
+    }
+
+    /**
+     * reports the progress of later think calls to listener, or stops
+     * reporting if it is null
+     */
+    void setListener(SearchListener listener);
+
+    /**
+     * releases the engine's threads once it is no longer needed, the
+     * engine cannot be used afterwards. engines that search on the
+     * calling thread have nothing to release
+     */
+    default void shutdown() {
+    }
+}
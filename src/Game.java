@@ -1,9 +1,32 @@
 import java.awt.*;
 import java.awt.event.*;
+import java.io.IOException;
+import java.nio.file.Paths;
 import javax.swing.*;
 
 public class Game implements Runnable {
     
+    // search limits for the computer player
+    private static final int COMPUTER_DEPTH = 60;
+    private static final long COMPUTER_TIME = 1000;
+    private static final int COMPUTER_TABLE_MB = 64;
+    
+    private static final String[] ENGINES = {"Alpha-beta", "Monte Carlo"};
+    
+    // the computer only plays on the 8x8 board
+    private static final String[] BOARD_SIZES = {"8x8", "6x6", "10x10", "16x16"};
+    
+    // the alpha-beta computer plays from this book, null for none
+    private final OpeningBook book;
+    
+    public Game() {
+        this(null);
+    }
+    
+    public Game(OpeningBook book) {
+        this.book = book;
+    }
+    
     public void run() {
         final JFrame frame = new JFrame("Othello");
         frame.setLocation(300, 300);
@@ -25,7 +48,7 @@ public class Game implements Runnable {
         
         // Control Panel Buttons
         final JPanel control_buttons = new JPanel();
-        control_buttons.setLayout(new GridLayout(2, 4));
+        control_buttons.setLayout(new GridLayout(2, 6));
         
         // Instructions button
         final JButton instructions = new JButton("Instructions");
@@ -63,6 +86,15 @@ public class Game implements Runnable {
         });
         control_buttons.add(undo);
         
+        // Redo button
+        final JButton redo = new JButton("Redo");
+        redo.addActionListener(new ActionListener() {
+            public void actionPerformed(ActionEvent e) {
+                gBoard.redo();
+            }
+        });
+        control_buttons.add(redo);
+        
         // Skip button
         final JButton skip = new JButton("Skip Turn");
         skip.addActionListener(new ActionListener() {
@@ -91,19 +123,94 @@ public class Game implements Runnable {
         });
         control_buttons.add(load);
         
+        // Computer player checkbox and the kind of engine it uses
+        final JCheckBox computer = new JCheckBox("Computer plays white");
+        final JComboBox<String> engine = new JComboBox<String>(ENGINES);
+        ActionListener computerListener = new ActionListener() {
+            public void actionPerformed(ActionEvent e) {
+                if (!computer.isSelected()) {
+                    gBoard.setComputer(null, false);
+                    return;
+                }
+                int threads = Runtime.getRuntime().availableProcessors();
+                if (engine.getSelectedIndex() == 1) {
+                    gBoard.setComputer(new MonteCarloSearch(threads, COMPUTER_TIME, 0,
+                            MonteCarloSearch.DEFAULT_NODES), false);
+                } else {
+                    ParallelSearch search = new ParallelSearch(threads, COMPUTER_DEPTH, 
+                            COMPUTER_TIME, COMPUTER_TABLE_MB);
+                    search.setBook(book);
+                    gBoard.setComputer(search, false);
+                }
+            }
+        };
+        computer.addActionListener(computerListener);
+        engine.addActionListener(computerListener);
+        control_buttons.add(computer);
+        control_buttons.add(engine);
+        
+        // Legal move hints
+        final JCheckBox hints = new JCheckBox("Show legal moves");
+        final JCheckBox counts = new JCheckBox("Show flip counts");
+        ActionListener hintListener = new ActionListener() {
+            public void actionPerformed(ActionEvent e) {
+                if (e.getSource() == counts && counts.isSelected()) {
+                    hints.setSelected(true);
+                }
+                gBoard.setHints(hints.isSelected(), counts.isSelected());
+            }
+        };
+        hints.addActionListener(hintListener);
+        counts.addActionListener(hintListener);
+        control_buttons.add(hints);
+        control_buttons.add(counts);
+        
+        // Board size, changing it starts a new game
+        final JComboBox<String> size = new JComboBox<String>(BOARD_SIZES);
+        size.setSelectedItem(gBoard.getBoardSize() + "x" + gBoard.getBoardSize());
+        size.addActionListener(new ActionListener() {
+            public void actionPerformed(ActionEvent e) {
+                String s = (String) size.getSelectedItem();
+                gBoard.reset(Integer.parseInt(s.substring(0, s.indexOf('x'))));
+            }
+        });
+        control_buttons.add(size);
+        
         control_panel.add(control_buttons);
         
         
         // Put the frame on the screen
         frame.pack();
         frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+        frame.addWindowListener(new WindowAdapter() {
+            public void windowClosing(WindowEvent e) {
+                gBoard.close();
+            }
+        });
         frame.setVisible(true);
 
-        // Start the game
-        gBoard.reset();
+        // Start the game, continuing the one left by the last run
+        gBoard.start();
     }
     
-    public static void main(String[] args) {
-        SwingUtilities.invokeLater(new Game());
+    /**
+     * java Game [book=FILE]
+     */
+    public static void main(String[] args) throws IOException {
+        OpeningBook book = null;
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (eq < 0) {
+                throw new IllegalArgumentException("expected name=value: " + arg);
+            }
+            String name = arg.substring(0, eq);
+            String value = arg.substring(eq + 1);
+            if (name.equals("book")) {
+                book = OpeningBook.open(Paths.get(value));
+            } else {
+                throw new IllegalArgumentException("unknown option: " + name);
+            }
+        }
+        SwingUtilities.invokeLater(new Game(book));
     }
 }
@@ -0,0 +1,515 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * archive of many games (finished or not) in one directory
+ *
+ * games are numbered 0, 1, 2, ... in the order they are added and are
+ * stored in the GameCodec format, one after the other, in segment files
+ * of bounded size. two indexes find them without scanning the segments:
+ *
+ * games.idx, by game number: int magic, int version, then one 24 byte
+ * entry per game at a fixed offset: int segment, int offset, int length,
+ * byte result (0 = not finished, else as Othello.endGame), 3 bytes unused,
+ * long canonical hash of the final position (see Symmetry; on boards
+ * other than 8x8 a hash of the final discs as they are, see positionKey)
+ *
+ * positions.idx, by final position: int magic, int version, long number
+ * of games it covers, then 16 byte entries sorted by (hash, game << 8 |
+ * result), read through a memory mapped buffer. games added since it was
+ * last written are kept in memory, and it is rewritten (merged with them)
+ * on close. if the program stops before that, the missing entries are
+ * read back from games.idx on open.
+ *
+ * data is written through buffers, so adding a game is usually just a
+ * copy. the archive is safe to use from several threads.
+ */
+public class GameArchive implements Closeable {
+
+    private static final int GAMES_MAGIC = 0x4f415831; // "OAX1"
+    private static final int POSITIONS_MAGIC = 0x4f415032; // "OAP2"
+    private static final int EXPORT_MAGIC = 0x4f414531; // "OAE1"
+    private static final int VERSION = 1;
+    private static final int GAMES_HEADER = 8;
+    private static final int GAMES_ENTRY = 24;
+    private static final int POSITIONS_HEADER = 16;
+    private static final int POSITIONS_ENTRY = 16;
+    private static final int BUFFER_BYTES = 256 * 1024;
+
+    public static final int DEFAULT_SEGMENT_BYTES = 64 * 1024 * 1024;
+
+    private final Path dir;
+    private final int segmentBytes;
+    private final FileChannel index;
+    private final Map<Integer, FileChannel> segments = new HashMap<Integer, FileChannel>();
+
+    private long size; // games in the archive
+    private long written; // games whose data and entry are on disk
+    private int segment; // segment being appended to
+    private int segmentEnd; // its length, including the buffer
+
+    private final ByteBuffer segmentBuffer = ByteBuffer.allocate(BUFFER_BYTES);
+    private final ByteBuffer indexBuffer = ByteBuffer.allocate(GAMES_ENTRY * 4096);
+
+    // positions.idx, and the entries added since it was written
+    private MappedByteBuffer positions;
+    private long positionsSize;
+    private long[] newHashes = new long[1024];
+    private long[] newValues = new long[1024];
+    private int newSize;
+
+    private GameArchive(Path dir, int segmentBytes, FileChannel index) {
+        this.dir = dir;
+        this.segmentBytes = segmentBytes;
+        this.index = index;
+    }
+
+    public static GameArchive open(Path dir) throws IOException {
+        return open(dir, DEFAULT_SEGMENT_BYTES);
+    }
+
+    /**
+     * opens the archive in dir, creating it if it does not exist
+     *
+     * throws IOException if the files cannot be read or are not an archive
+     */
+    public static GameArchive open(Path dir, int segmentBytes) throws IOException {
+        Files.createDirectories(dir);
+        FileChannel index = FileChannel.open(dir.resolve("games.idx"), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        GameArchive archive = new GameArchive(dir, segmentBytes, index);
+        try {
+            archive.recover();
+        } catch (IOException e) {
+            archive.closeChannels();
+            throw e;
+        }
+        return archive;
+    }
+
+    /**
+     * reads the indexes and drops anything a crash left half written
+     */
+    private void recover() throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(GAMES_HEADER);
+        if (index.size() == 0) {
+            header.putInt(GAMES_MAGIC).putInt(VERSION).flip();
+            writeFully(index, header, 0);
+        } else {
+            if (index.size() < GAMES_HEADER) {
+                throw new IOException("not a game archive: " + dir);
+            }
+            readFully(index, header, 0);
+            if (header.getInt(0) != GAMES_MAGIC) {
+                throw new IOException("not a game archive: " + dir);
+            }
+            if (header.getInt(4) != VERSION) {
+                throw new IOException("unsupported archive version " + header.getInt(4));
+            }
+        }
+
+        size = (index.size() - GAMES_HEADER) / GAMES_ENTRY;
+        index.truncate(GAMES_HEADER + size * GAMES_ENTRY);
+        written = size;
+        if (size > 0) {
+            ByteBuffer entry = entry(size - 1);
+            segment = entry.getInt(0);
+            segmentEnd = entry.getInt(4) + entry.getInt(8);
+        }
+        // bytes after the last indexed game were never committed
+        FileChannel current = segment(segment);
+        if (current.size() > segmentEnd) {
+            current.truncate(segmentEnd);
+        }
+
+        Path path = dir.resolve("positions.idx");
+        if (Files.exists(path)) {
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                long length = channel.size();
+                if (length < POSITIONS_HEADER || length > Integer.MAX_VALUE) {
+                    throw new IOException("position index is damaged: " + path);
+                }
+                positions = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+            }
+            if (positions.getInt(0) != POSITIONS_MAGIC
+                    || (positions.capacity() - POSITIONS_HEADER) % POSITIONS_ENTRY != 0) {
+                throw new IOException("position index is damaged: " + path);
+            }
+            positionsSize = (positions.capacity() - POSITIONS_HEADER) / POSITIONS_ENTRY;
+        }
+        long covered = positions == null ? 0 : positions.getLong(8);
+        for (long id = covered; id < size; id++) {
+            ByteBuffer entry = entry(id);
+            addPosition(entry.getLong(16), id, entry.get(12));
+        }
+    }
+
+    /**
+     * adds a game to the archive and returns its number
+     */
+    public synchronized long add(Othello game) throws IOException {
+        ByteBuffer data = GameCodec.encode(game);
+        return append(data, positionKey(game), game.endGame());
+    }
+
+    /**
+     * returns the key the final position of game is indexed under: its
+     * canonical hash on the 8x8 board, otherwise a hash of the size, the
+     * discs and the player to move (not reduced by symmetry, find only
+     * looks up 8x8 positions)
+     */
+    static long positionKey(Othello game) {
+        if (game.getSize() == Bitboard.SIZE) {
+            return Symmetry.canonicalHash(game.getPosition());
+        }
+        long h = game.getSize() * 2 + (game.getCurrentPlayer() ? 1 : 0);
+        for (byte cell : game.getCells()) {
+            h = (h ^ cell) * 0x100000001b3L;
+        }
+        // splitmix64 finalizer, so the keys spread over the whole range
+        h = (h ^ (h >>> 30)) * 0xbf58476d1ce4e5b9L;
+        h = (h ^ (h >>> 27)) * 0x94d049bb133111ebL;
+        return h ^ (h >>> 31);
+    }
+
+    private long append(ByteBuffer data, long hash, int result) throws IOException {
+        int length = data.remaining();
+        if (segmentEnd > 0 && (long) segmentEnd + length > segmentBytes) {
+            flush();
+            segment++;
+            segmentEnd = 0;
+        }
+        if (segmentBuffer.remaining() < length) {
+            flushSegment();
+        }
+        int offset = segmentEnd;
+        if (segmentBuffer.remaining() < length) {
+            // larger than the buffer, write it straight through
+            writeFully(segment(segment), data, offset);
+        } else {
+            segmentBuffer.put(data);
+        }
+        segmentEnd += length;
+
+        if (indexBuffer.remaining() < GAMES_ENTRY) {
+            flush();
+        }
+        indexBuffer.putInt(segment).putInt(offset).putInt(length);
+        indexBuffer.put((byte) result).put((byte) 0).put((byte) 0).put((byte) 0);
+        indexBuffer.putLong(hash);
+
+        long id = size++;
+        addPosition(hash, id, result);
+        return id;
+    }
+
+    private void addPosition(long hash, long id, int result) {
+        if (newSize == newHashes.length) {
+            newHashes = Arrays.copyOf(newHashes, newSize * 2);
+            newValues = Arrays.copyOf(newValues, newSize * 2);
+        }
+        newHashes[newSize] = hash;
+        newValues[newSize] = id << 8 | result;
+        newSize++;
+    }
+
+    /**
+     * reads game number id into game
+     *
+     * throws IOException if the game cannot be read or is corrupt,
+     * IndexOutOfBoundsException if there is no such game
+     */
+    public synchronized void load(long id, Othello game) throws IOException {
+        GameCodec.decode(read(id), game);
+    }
+
+    /**
+     * returns game number id in the GameCodec format
+     */
+    public synchronized ByteBuffer read(long id) throws IOException {
+        if (id < 0 || id >= size) {
+            throw new IndexOutOfBoundsException("no game " + id);
+        }
+        if (id >= written) {
+            flush();
+        }
+        ByteBuffer entry = entry(id);
+        ByteBuffer data = ByteBuffer.allocate(entry.getInt(8));
+        readFully(segment(entry.getInt(0)), data, entry.getInt(4));
+        data.flip();
+        return data;
+    }
+
+    /**
+     * returns the result of game number id: 0 if it is not finished,
+     * otherwise 1, 2 or 3 as Othello.endGame
+     */
+    public synchronized int getResult(long id) throws IOException {
+        if (id < 0 || id >= size) {
+            throw new IndexOutOfBoundsException("no game " + id);
+        }
+        if (id >= written) {
+            flush();
+        }
+        return entry(id).get(12);
+    }
+
+    /**
+     * returns the numbers of the games that ended in the position (or any
+     * rotation or reflection of it) with the given result, in order.
+     * result -1 matches any result
+     */
+    public synchronized long[] find(Position position, int result) {
+        return find(Symmetry.canonicalHash(position), result);
+    }
+
+    public synchronized long[] find(long canonicalHash, int result) {
+        long[] found = new long[16];
+        int n = 0;
+        for (int i = firstPosition(canonicalHash); i < positionsSize; i++) {
+            int offset = POSITIONS_HEADER + i * POSITIONS_ENTRY;
+            if (positions.getLong(offset) != canonicalHash) {
+                break;
+            }
+            long value = positions.getLong(offset + 8);
+            if (result < 0 || (value & 0xff) == result) {
+                if (n == found.length) {
+                    found = Arrays.copyOf(found, n * 2);
+                }
+                found[n++] = value >>> 8;
+            }
+        }
+        for (int i = 0; i < newSize; i++) {
+            if (newHashes[i] == canonicalHash && (result < 0 || (newValues[i] & 0xff) == result)) {
+                if (n == found.length) {
+                    found = Arrays.copyOf(found, n * 2);
+                }
+                found[n++] = newValues[i] >>> 8;
+            }
+        }
+        found = Arrays.copyOf(found, n);
+        Arrays.sort(found);
+        return found;
+    }
+
+    /**
+     * returns the first entry in positions.idx with the given hash,
+     * or the first one after it
+     */
+    private int firstPosition(long hash) {
+        int lo = 0;
+        int hi = (int) positionsSize;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (positions.getLong(POSITIONS_HEADER + mid * POSITIONS_ENTRY) < hash) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * writes games from up to (not including) to to out, as they are
+     * stored, without decoding them. returns the number written
+     */
+    public long exportTo(OutputStream out, long from, long to) throws IOException {
+        DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out, BUFFER_BYTES));
+        data.writeInt(EXPORT_MAGIC);
+        long n = 0;
+        for (long id = Math.max(0, from); id < Math.min(to, getSize()); id++) {
+            ByteBuffer game = read(id);
+            data.writeInt(game.remaining());
+            data.write(game.array(), game.arrayOffset() + game.position(), game.remaining());
+            n++;
+        }
+        data.flush();
+        return n;
+    }
+
+    /**
+     * adds the games in a stream written by exportTo, checking each one.
+     * returns the number added
+     *
+     * throws IOException if the stream cannot be read or a game in it
+     * is corrupt (the games before it are kept)
+     */
+    public long importFrom(InputStream in) throws IOException {
+        DataInputStream data = new DataInputStream(new BufferedInputStream(in, BUFFER_BYTES));
+        if (data.readInt() != EXPORT_MAGIC) {
+            throw new IOException("not an exported archive");
+        }
+        Othello game = new Othello();
+        long n = 0;
+        while (true) {
+            int length;
+            try {
+                length = data.readInt();
+            } catch (EOFException e) {
+                break;
+            }
+            if (length < 0 || length > BUFFER_BYTES) {
+                throw new IOException("exported game " + n + " is corrupt");
+            }
+            byte[] bytes = new byte[length];
+            data.readFully(bytes);
+            ByteBuffer buf = ByteBuffer.wrap(bytes);
+            GameCodec.decode(buf, game);
+            synchronized (this) {
+                append(buf, positionKey(game), game.endGame());
+            }
+            n++;
+        }
+        return n;
+    }
+
+    /**
+     * returns the number of games in the archive
+     */
+    public synchronized long getSize() {
+        return size;
+    }
+
+    /**
+     * writes out the buffered games and their entries in games.idx
+     */
+    public synchronized void flush() throws IOException {
+        flushSegment();
+        indexBuffer.flip();
+        writeFully(index, indexBuffer, GAMES_HEADER + written * GAMES_ENTRY);
+        indexBuffer.clear();
+        written = size;
+    }
+
+    private void flushSegment() throws IOException {
+        segmentBuffer.flip();
+        writeFully(segment(segment), segmentBuffer, segmentEnd - segmentBuffer.remaining());
+        segmentBuffer.clear();
+    }
+
+    /**
+     * writes everything out, including positions.idx, and closes the files
+     */
+    public synchronized void close() throws IOException {
+        try {
+            flush();
+            writePositions();
+        } finally {
+            closeChannels();
+        }
+    }
+
+    /**
+     * merges the new entries into positions.idx, written to a
+     * temporary file that replaces it
+     */
+    private void writePositions() throws IOException {
+        if (newSize == 0 && positions != null) {
+            return;
+        }
+        PairSort.sort(newHashes, newValues, 0, newSize - 1);
+
+        Path path = dir.resolve("positions.idx");
+        Path tmp = dir.resolve("positions.idx.tmp");
+        try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buf = ByteBuffer.allocate(BUFFER_BYTES);
+            buf.putInt(POSITIONS_MAGIC).putInt(VERSION).putLong(size);
+            int i = 0;
+            int j = 0;
+            while (i < positionsSize || j < newSize) {
+                long hash;
+                long value;
+                int offset = POSITIONS_HEADER + i * POSITIONS_ENTRY;
+                if (j == newSize || (i < positionsSize && (positions.getLong(offset) < newHashes[j]
+                        || (positions.getLong(offset) == newHashes[j]
+                        && positions.getLong(offset + 8) < newValues[j])))) {
+                    hash = positions.getLong(offset);
+                    value = positions.getLong(offset + 8);
+                    i++;
+                } else {
+                    hash = newHashes[j];
+                    value = newValues[j];
+                    j++;
+                }
+                if (buf.remaining() < POSITIONS_ENTRY) {
+                    buf.flip();
+                    writeFully(out, buf, out.size());
+                    buf.clear();
+                }
+                buf.putLong(hash).putLong(value);
+            }
+            buf.flip();
+            writeFully(out, buf, out.size());
+            out.force(false);
+        }
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        positions = null;
+        positionsSize = 0;
+        newSize = 0;
+    }
+
+    private void closeChannels() throws IOException {
+        index.close();
+        for (FileChannel channel : segments.values()) {
+            channel.close();
+        }
+        segments.clear();
+    }
+
+    /**
+     * reads the games.idx entry of a game that is on disk
+     */
+    private ByteBuffer entry(long id) throws IOException {
+        ByteBuffer entry = ByteBuffer.allocate(GAMES_ENTRY);
+        readFully(index, entry, GAMES_HEADER + id * GAMES_ENTRY);
+        return entry;
+    }
+
+    private FileChannel segment(int n) throws IOException {
+        FileChannel channel = segments.get(n);
+        if (channel == null) {
+            Path path = dir.resolve(String.format("segment-%05d.dat", n));
+            channel = FileChannel.open(path, StandardOpenOption.CREATE,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE);
+            segments.put(n, channel);
+        }
+        return channel;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buf, long offset)
+            throws IOException {
+        long start = offset - buf.position();
+        while (buf.hasRemaining()) {
+            if (channel.read(buf, start + buf.position()) < 0) {
+                throw new IOException("archive file is truncated");
+            }
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buf, long offset)
+            throws IOException {
+        long start = offset - buf.position();
+        while (buf.hasRemaining()) {
+            channel.write(buf, start + buf.position());
+        }
+    }
+}
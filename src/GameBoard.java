@@ -1,5 +1,8 @@
 import java.awt.*;
 import java.awt.event.*;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Paths;
 import javax.swing.*;
 
 @SuppressWarnings("serial")
@@ -7,9 +10,28 @@ public class GameBoard extends JPanel {
     
     private Othello o;
     private JLabel status;
+    private MoveJournal journal; // null if the game could not be journaled
+    
+    private AsyncEngine computer; // null if both players are human
+    private boolean computerPlayer1; // true if the computer plays black
 
+    // the cells of every board size (6x6 up to 16x16) fill the same area
     public static final int BOARD_WIDTH = 480;
     public static final int BOARD_HEIGHT = 480;
+    private static final Color GRID_COLOR = new Color(34, 139, 34);
+    private static final Color HINT_BLACK = new Color(0, 0, 0, 128);
+    private static final Color HINT_WHITE = new Color(255, 255, 255, 160);
+    
+    private int cell = BOARD_WIDTH / Bitboard.SIZE; // pixels per cell
+    // background and grid, drawn once per board size and copied on every repaint
+    private BufferedImage grid;
+    // what each cell showed when last painted (a disc as Othello.getCell,
+    // or HINT), to repaint only the cells that changed
+    private byte[] shown = new byte[0];
+    private static final byte HINT = 3;
+    
+    private boolean hints; // mark the legal moves of the player to move
+    private boolean flipCounts; // and how many discs each would flip
     
     private static final String NO_MOVES = "No moves to play.";
     private static final String MULTIPLE_DISCS = "Only 1 disc can be played each turn.";
@@ -19,14 +41,22 @@ public class GameBoard extends JPanel {
     private static final String SAVE_SUCCESS = "Game saved successfully!";
     private static final String SAVE_ERROR = "Game could not be saved.";
     private static final String LOAD_ERROR = "Game could not be loaded.";
+    private static final String AUTOSAVE = "autosave";
     
     public GameBoard(JLabel statusInit) {
-        setBorder(BorderFactory.createLineBorder(new Color(34, 139, 34)));
+        setBorder(BorderFactory.createLineBorder(GRID_COLOR));
         
         setFocusable(true);
         
         o = new Othello();
         status = statusInit;
+        
+        // picks up the game left by the last run, if there is one
+        try {
+            journal = MoveJournal.open(Paths.get(AUTOSAVE), o);
+        } catch (IOException e) {
+            journal = null;
+        }
 
         /*
          * Listens for mouseclicks.  Updates the model, then updates the game board
@@ -35,12 +65,15 @@ public class GameBoard extends JPanel {
         addMouseListener(new MouseAdapter() {
             @Override
             public void mouseReleased(MouseEvent e) {
+                if (isThinking()) {
+                    return;
+                }
                 Point p = e.getPoint();
                                 
                 // updates the model given the coordinates of the mouseclick
-                o.tryCell(p.y / 60, p.x / 60);
+                o.tryCell(p.y / cell, p.x / cell);
                                 
-                repaint(); // repaints the game board
+                refresh(); // repaints the cells that changed
             }
         });
     }
@@ -64,13 +97,54 @@ public class GameBoard extends JPanel {
                 JOptionPane.PLAIN_MESSAGE);
     }
     
+    /**
+     * Continues the game left by the last run, or starts a new one.
+     */
+    public void start() {
+        if (o.getHistoryLength() == 0 && o.getSize() == Bitboard.SIZE
+                && o.getPosition().equals(Position.start())) {
+            reset();
+        } else {
+            refresh();
+            updateStatus();
+            requestFocusInWindow();
+        }
+    }
+    
+    /**
+     * Writes out the moves not yet in the autosave journal.
+     */
+    public void close() {
+        if (computer != null) {
+            computer.shutdown();
+            computer = null;
+        }
+        if (journal != null) {
+            try {
+                journal.close();
+            } catch (IOException e) {
+                // nothing more can be done while the window closes
+            }
+            journal = null;
+        }
+    }
+    
     /**
      * Resets the game to its initial state.
      */
     public void reset() {
-        o.reset();
+        reset(o.getSize());
+    }
+    
+    /**
+     * Starts a new game on a size x size board.
+     */
+    public void reset(int size) {
+        cancelComputer();
+        o.reset(size);
         status.setText("Player 1's Turn");
-        repaint();
+        computerMoves();
+        refresh();
 
         // Makes sure this component has keyboard/mouse focus
         requestFocusInWindow();
@@ -81,6 +155,9 @@ public class GameBoard extends JPanel {
      */
     
     public void play() {
+        if (isThinking()) {
+            return;
+        }
         int success = o.playTurn(o.getMoves());
 
         if (success == -1) {
@@ -97,23 +174,129 @@ public class GameBoard extends JPanel {
                     JOptionPane.PLAIN_MESSAGE);
         }
         
-        repaint();
+        computerMoves();
+        refresh();
                
         updateStatus(); // updates the status JLabel
     }
     
 
     public void undo() {
+        // while the computer thinks, this takes back the move it is answering
+        cancelComputer();
         o.undo();
-        repaint();
+        // take back the computer's reply as well as the player's move
+        while (isComputerTurn()) {
+            if (!o.undoMove()) {
+                break;
+            }
+        }
+        computerMoves();
+        refresh();
+        updateStatus();
+    }
+    
+    public void redo() {
+        cancelComputer();
+        o.redo();
+        while (isComputerTurn()) {
+            if (!o.redoMove()) {
+                break;
+            }
+        }
+        computerMoves();
+        refresh();
+        updateStatus();
     }
     
     public void skip() {
+        if (isThinking()) {
+            return;
+        }
         o.skip();
-        repaint();
+        computerMoves();
+        refresh();
+        updateStatus();
+    }
+    
+    /**
+     * lets an engine play one side, or makes both players
+     * human if engine is null. the engine thinks on its own thread
+     * (see AsyncEngine), so the board stays responsive meanwhile.
+     * the engines only know the 8x8 board, on other sizes both
+     * players are human
+     */
+    public void setComputer(Engine engine, boolean player1) {
+        if (computer != null) {
+            computer.shutdown();
+        }
+        computer = engine == null ? null : new AsyncEngine(engine, SwingUtilities::invokeLater);
+        computerPlayer1 = player1;
+        computerMoves();
+        refresh();
         updateStatus();
     }
     
+    private boolean isComputerTurn() {
+        return computer != null && o.getSize() == Bitboard.SIZE
+                && o.getCurrentPlayer() == computerPlayer1
+                && o.getMoves().isEmpty();
+    }
+    
+    private boolean isThinking() {
+        return computer != null && computer.isBusy();
+    }
+    
+    /**
+     * stops the computer's search, its move will not be played
+     */
+    private void cancelComputer() {
+        if (computer != null) {
+            computer.cancel();
+        }
+    }
+    
+    /**
+     * if it is the computer's turn, passes for it if it has no moves,
+     * otherwise starts it thinking. the move is played on the EDT when 
+     * the search finishes, and then it is checked whose turn it is again
+     */
+    private void computerMoves() {
+        if (isThinking()) {
+            return;
+        }
+        while (isComputerTurn() && !o.getGameOver()) {
+            long legal = o.getCurrentPlayer() ? o.getP1Moves() : o.getP2Moves();
+            if (legal == 0) {
+                o.skip();
+                continue;
+            }
+            final Position position = o.getPosition();
+            computer.requestMove(position, this::showProgress, result -> {
+                if (result != null && o.getPosition().equals(position)) {
+                    o.makeMove(result.getBestMove());
+                }
+                computerMoves();
+                refresh();
+                updateStatus();
+            });
+            return;
+        }
+    }
+    
+    /**
+     * shows the computer's best line so far in the status label
+     */
+    private void showProgress(SearchResult result) {
+        StringBuilder line = new StringBuilder();
+        int[] pv = result.getPv();
+        for (int i = 0; i < Math.min(pv.length, 6); i++) {
+            line.append(' ').append(SearchResult.squareName(pv[i]));
+        }
+        status.setText("Player " + (computerPlayer1 ? 1 : 2) + " (computer) thinking: depth " 
+                + result.getDepth() + ", score " + result.getScore() + ", line" + line);
+    }
+    
     public void save() {
         boolean success = o.save();
         if (success) {
@@ -126,12 +309,14 @@ public class GameBoard extends JPanel {
     }
     
     public void load() {
+        cancelComputer();
         boolean success = o.load();
         if (!success) {
             JOptionPane.showMessageDialog(frame, LOAD_ERROR, "Error", 
                     JOptionPane.PLAIN_MESSAGE);
         }
-        repaint();
+        computerMoves();
+        refresh();
         updateStatus();
     }
 
@@ -144,6 +329,9 @@ public class GameBoard extends JPanel {
         } else {
             status.setText("Player 2's Turn");
         }
+        if (isThinking()) {
+            status.setText(status.getText() + " | Computer is thinking...");
+        }
         
         int winner = o.endGame();
         if (winner == 1) {
@@ -159,51 +347,177 @@ public class GameBoard extends JPanel {
     }
     
     /**
-     * Draws the game board.
+     * Repaints the cells whose disc changed since they were last painted,
+     * or the whole board if its size changed.
+     */
+    private void refresh() {
+        if (fitBoard()) {
+            repaint();
+            return;
+        }
+        boolean changed = false;
+        for (int sq = 0; sq < shown.length; sq++) {
+            int now = cellState(sq);
+            if (now != shown[sq]) {
+                shown[sq] = (byte) now;
+                repaintCell(sq);
+                changed = true;
+            }
+        }
+        if (flipCounts && changed) {
+            // any move can change the counts of the squares still hinted
+            repaintHints();
+        }
+    }
+    
+    /**
+     * sizes the cells, grid and shown cells to the board. returns
+     * false if they already fit it
+     */
+    private boolean fitBoard() {
+        int size = o.getSize();
+        if (shown.length == size * size) {
+            return false;
+        }
+        cell = BOARD_WIDTH / size;
+        grid = null;
+        shown = new byte[size * size];
+        for (int sq = 0; sq < shown.length; sq++) {
+            shown[sq] = (byte) cellState(sq);
+        }
+        return true;
+    }
+    
+    /**
+     * returns the disc shown on square, or HINT for a legal move to mark
+     */
+    private int cellState(int square) {
+        int size = o.getSize();
+        int disc = o.getCell(square / size, square % size);
+        if (disc == 0 && showHints() && o.isLegalMove(square)) {
+            return HINT;
+        }
+        return disc;
+    }
+    
+    private void repaintCell(int square) {
+        int size = o.getSize();
+        repaint(square % size * cell, square / size * cell, cell, cell);
+    }
+    
+    private void repaintHints() {
+        for (int sq = 0; sq < shown.length; sq++) {
+            if (shown[sq] == HINT) {
+                repaintCell(sq);
+            }
+        }
+    }
+    
+    /**
+     * Draws the part of the game board inside the clip.
      */
     @Override
     public void paintComponent(Graphics g) {
         super.paintComponent(g);
-                
-        drawGrid(g);
-        drawDiscs(g);       
-    }
-    
-    private void drawGrid(Graphics g) {
-        g.setColor(new Color(34, 139, 34));
-        // vertical
-        g.drawLine(60, 0, 60, 480);
-        g.drawLine(120, 0, 120, 480);
-        g.drawLine(180, 0, 180, 480);
-        g.drawLine(240, 0, 240, 480);
-        g.drawLine(300, 0, 300, 480);
-        g.drawLine(360, 0, 360, 480);
-        g.drawLine(420, 0, 420, 480);
-        //horizontal        
-        g.drawLine(0, 60, 480, 60);
-        g.drawLine(0, 120, 480, 120);
-        g.drawLine(0, 180, 480, 180);
-        g.drawLine(0, 240, 480, 240);
-        g.drawLine(0, 300, 480, 300);
-        g.drawLine(0, 360, 480, 360);
-        g.drawLine(0, 420, 480, 420);  
+        
+        fitBoard(); // in case this is painted before the first refresh
+        if (grid == null) {
+            grid = drawGrid();
+        }
+        g.drawImage(grid, 0, 0, null);
+        drawDiscs(g);
+    }
+    
+    private BufferedImage drawGrid() {
+        GraphicsConfiguration gc = getGraphicsConfiguration();
+        BufferedImage image = gc != null
+                ? gc.createCompatibleImage(BOARD_WIDTH, BOARD_HEIGHT)
+                : new BufferedImage(BOARD_WIDTH, BOARD_HEIGHT, BufferedImage.TYPE_INT_RGB);
+        Graphics g = image.getGraphics();
+        g.setColor(getBackground());
+        g.fillRect(0, 0, BOARD_WIDTH, BOARD_HEIGHT);
+        g.setColor(GRID_COLOR);
+        for (int i = 1; i < o.getSize(); i++) {
+            g.drawLine(i * cell, 0, i * cell, BOARD_HEIGHT); // vertical
+            g.drawLine(0, i * cell, BOARD_WIDTH, i * cell); // horizontal
+        }
+        g.dispose();
+        return image;
     }
     
     private void drawDiscs(Graphics g) {
-        for (int row = 0; row < 8; row++) {
-            for (int col = 0; col < 8; col++) {
-                int disc = o.getCell(row, col);
-                if (disc == 1) {
+        // only the cells inside the clip need to be drawn
+        Rectangle clip = g.getClipBounds();
+        if (clip == null) {
+            clip = new Rectangle(0, 0, BOARD_WIDTH, BOARD_HEIGHT);
+        }
+        int size = o.getSize();
+        int firstRow = Math.max(0, clip.y / cell);
+        int lastRow = Math.min(size - 1, (clip.y + clip.height - 1) / cell);
+        int firstCol = Math.max(0, clip.x / cell);
+        int lastCol = Math.min(size - 1, (clip.x + clip.width - 1) / cell);
+        
+        // discs are 2/3 of a cell across, 40 pixels on the 8x8 board
+        int inset = cell / 6;
+        int disc = cell - 2 * inset;
+        for (int row = firstRow; row <= lastRow; row++) {
+            for (int col = firstCol; col <= lastCol; col++) {
+                int state = shown[row * size + col];
+                if (state == 1) {
                     g.setColor(Color.BLACK);
-                    g.fillOval(col * 60 + 10, row * 60 + 10, 40, 40);
-                } else if (disc == 2) {
-                    g.setColor(Color.WHITE);   
-                    g.fillOval(col * 60 + 10, row * 60 + 10, 40, 40);
+                    g.fillOval(col * cell + inset, row * cell + inset, disc, disc);
+                } else if (state == 2) {
+                    g.setColor(Color.WHITE);
+                    g.fillOval(col * cell + inset, row * cell + inset, disc, disc);
+                } else if (state == HINT) {
+                    drawHint(g, row, col);
                 }
             }
         }
     }
     
+    /**
+     * marks a legal move with a ring in the mover's colour, and
+     * the number of discs it flips if flip counts are on
+     */
+    private void drawHint(Graphics g, int row, int col) {
+        g.setColor(o.getCurrentPlayer() ? HINT_BLACK : HINT_WHITE);
+        g.drawOval(col * cell + cell / 3, row * cell + cell / 3, cell / 3, cell / 3);
+        if (flipCounts) {
+            String count = Integer.toString(o.getFlipCount(row * o.getSize() + col));
+            FontMetrics fm = g.getFontMetrics();
+            g.drawString(count, col * cell + (cell - fm.stringWidth(count)) / 2,
+                    row * cell + (cell + fm.getAscent() - fm.getDescent()) / 2);
+        }
+    }
+    
+    /**
+     * returns true if legal moves are to be marked: hints are on, no
+     * disc has been placed, and it is not the computer's turn
+     */
+    private boolean showHints() {
+        return hints && o.getMoves().isEmpty() && !isComputerTurn();
+    }
+    
+    /**
+     * turns the legal move hints, and the flip counts shown with
+     * them, on or off
+     */
+    public void setHints(boolean hints, boolean flipCounts) {
+        this.hints = hints;
+        this.flipCounts = flipCounts;
+        refresh();
+        // counts are not part of what refresh compares
+        repaintHints();
+    }
+    
+    /**
+     * Returns the number of rows (and columns) of the game being played.
+     */
+    public int getBoardSize() {
+        return o.getSize();
+    }
+    
     /**
      * Returns the size of the game board.
      */
@@ -0,0 +1,381 @@
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/**
+ * binary save format for a game
+ *
+ * layout (big endian), version 1:
+ * - int magic "OTHG", byte version
+ * - byte player to move (1 = black, 2 = white), long black, long white
+ * - the position the move history starts from: byte player to move,
+ *   long black, long white, varint number of turns played before it
+ * - varint number of moves, then one byte per move (square, 64 = pass)
+ * - varint number of discs placed but not played, one byte per square
+ * - int CRC32 of everything before it
+ *
+ * boards that are not 8x8 (see Mailbox) are saved as version 2:
+ * - int magic "OTHG", byte version, byte board size
+ * - byte player to move, the discs at 2 bits per square (0 empty,
+ *   1 black, 2 white), 4 squares to a byte, square 0 in the low bits
+ * - the base position the same way, varint number of turns before it
+ * - varint number of moves, then a varint per move (square + 1, 0 = pass)
+ * - varint number of discs placed but not played, a varint per square
+ * - int CRC32 of everything before it
+ *
+ * a game is read by replaying its moves from the start position, so a
+ * file whose checksum, moves or final position do not add up is
+ * rejected instead of being loaded.
+ */
+public final class GameCodec {
+
+    private static final int MAGIC = 0x4f544847; // "OTHG"
+    private static final int VERSION = 1;
+    private static final int VERSION_SIZED = 2;
+    private static final int PASS_BYTE = 64;
+    private static final int MAX_BYTES = 1 << 20;
+
+    private GameCodec() {
+    }
+
+    /**
+     * returns the encoded game in a buffer ready to be read
+     */
+    public static ByteBuffer encode(Othello game) {
+        return encode(game, true);
+    }
+
+    /**
+     * as encode(game), but leaves out the discs placed and not played
+     * if withPending is false
+     */
+    static ByteBuffer encode(Othello game, boolean withPending) {
+        if (game.getSize() != Bitboard.SIZE) {
+            return encodeSized(game, withPending);
+        }
+        int history = game.getHistoryLength();
+        int pending = withPending ? game.getMoves().size() : 0;
+        ByteBuffer buf = ByteBuffer.allocate(64 + history + pending);
+
+        buf.putInt(MAGIC);
+        buf.put((byte) VERSION);
+        Position p = game.getPosition();
+        putPosition(buf, p);
+        putPosition(buf, game.getBasePosition());
+        putVarint(buf, game.getBaseTurns());
+
+        putVarint(buf, history);
+        for (int i = 0; i < history; i++) {
+            int sq = game.getHistorySquare(i);
+            buf.put((byte) (sq == Position.PASS ? PASS_BYTE : sq));
+        }
+        putVarint(buf, pending);
+        if (withPending) {
+            for (Coordinate c : game.getMoves()) {
+                buf.put((byte) Bitboard.square(c.getRow(), c.getCol()));
+            }
+        }
+
+        return finish(buf);
+    }
+
+    private static ByteBuffer encodeSized(Othello game, boolean withPending) {
+        int size = game.getSize();
+        int history = game.getHistoryLength();
+        int pending = withPending ? game.getMoves().size() : 0;
+        ByteBuffer buf = ByteBuffer.allocate(64 + size * size + 3 * (history + pending));
+
+        buf.putInt(MAGIC);
+        buf.put((byte) VERSION_SIZED);
+        buf.put((byte) size);
+        buf.put((byte) (game.getCurrentPlayer() ? 1 : 2));
+        putCells(buf, game.getCells());
+        buf.put((byte) (game.getBaseCurrentPlayer() ? 1 : 2));
+        putCells(buf, game.getBaseCells());
+        putVarint(buf, game.getBaseTurns());
+
+        putVarint(buf, history);
+        for (int i = 0; i < history; i++) {
+            int sq = game.getHistorySquare(i);
+            putVarint(buf, sq == Position.PASS ? 0 : sq + 1);
+        }
+        putVarint(buf, pending);
+        if (withPending) {
+            for (Coordinate c : game.getMoves()) {
+                putVarint(buf, c.getRow() * size + c.getCol());
+            }
+        }
+        return finish(buf);
+    }
+
+    /**
+     * appends the checksum and makes buf ready to be read
+     */
+    private static ByteBuffer finish(ByteBuffer buf) {
+        CRC32 crc = new CRC32();
+        crc.update(buf.array(), 0, buf.position());
+        buf.putInt((int) crc.getValue());
+        buf.flip();
+        return buf;
+    }
+
+    /**
+     * reads an encoded game from buf into game. game is only changed
+     * if the whole buffer is valid
+     *
+     * throws IOException if the data is truncated or corrupt
+     */
+    public static void decode(ByteBuffer buf, Othello game) throws IOException {
+        ByteBuffer in = buf.slice();
+        int length = in.remaining();
+        if (length < 8) {
+            throw new IOException("saved game is truncated");
+        }
+        if (in.getInt(0) != MAGIC) {
+            throw new IOException("not a saved game");
+        }
+        if (in.get(4) != VERSION && in.get(4) != VERSION_SIZED) {
+            throw new IOException("unsupported saved game version " + in.get(4));
+        }
+        CRC32 crc = new CRC32();
+        ByteBuffer body = in.duplicate();
+        body.limit(length - 4);
+        crc.update(body);
+        if ((int) crc.getValue() != in.getInt(length - 4)) {
+            throw new IOException("saved game is corrupt (checksum mismatch)");
+        }
+        in.limit(length - 4);
+        in.position(5);
+
+        try {
+            if (in.get(4) == VERSION_SIZED) {
+                decodeSized(in, game);
+                return;
+            }
+            Position end = getPosition(in);
+            Position base = getPosition(in);
+            int baseTurns = getVarint(in);
+
+            // replay the moves to check they are legal and lead to the saved position
+            int historyLength = getVarint(in);
+            if (historyLength > in.remaining()) {
+                throw new IOException("saved game is truncated");
+            }
+            int[] history = new int[historyLength];
+            Position p = base;
+            for (int i = 0; i < historyLength; i++) {
+                int sq = in.get() & 0xff;
+                if (sq == PASS_BYTE) {
+                    sq = Position.PASS;
+                } else if (sq >= Bitboard.SQUARES || p.flips(sq) == 0) {
+                    throw new IOException("saved game has an illegal move");
+                }
+                history[i] = sq;
+                p = p.play(sq);
+            }
+            if (!p.equals(end)) {
+                throw new IOException("saved moves do not match the saved board");
+            }
+
+            int pendingCount = getVarint(in);
+            if (pendingCount > in.remaining()) {
+                throw new IOException("saved game is truncated");
+            }
+            int[] pending = new int[pendingCount];
+            long taken = end.getBlack() | end.getWhite();
+            for (int i = 0; i < pendingCount; i++) {
+                int sq = in.get() & 0xff;
+                if (sq >= Bitboard.SQUARES || (taken & (1L << sq)) != 0) {
+                    throw new IOException("saved game has a disc on a taken square");
+                }
+                taken |= 1L << sq;
+                pending[i] = sq;
+            }
+            if (in.hasRemaining()) {
+                throw new IOException("saved game has trailing data");
+            }
+
+            game.restore(base, baseTurns, history, pending);
+        } catch (BufferUnderflowException e) {
+            throw new IOException("saved game is truncated");
+        } catch (IllegalArgumentException e) {
+            throw new IOException("saved game is corrupt: " + e.getMessage());
+        }
+    }
+
+    /**
+     * reads the rest of a version 2 game, after the version byte
+     */
+    private static void decodeSized(ByteBuffer in, Othello game) throws IOException {
+        int size = in.get();
+        if (!Mailbox.isValidSize(size) || size == Bitboard.SIZE) {
+            throw new IOException("saved game has an invalid board size " + size);
+        }
+        int squares = size * size;
+        boolean endPlayer1 = getSide(in);
+        byte[] end = getCells(in, squares);
+        boolean basePlayer1 = getSide(in);
+        byte[] base = getCells(in, squares);
+        int baseTurns = getVarint(in);
+
+        // replay the moves to check they are legal and lead to the saved board
+        Mailbox board = new Mailbox(size);
+        for (int sq = 0; sq < squares; sq++) {
+            board.set(sq, base[sq]);
+        }
+        boolean player1 = basePlayer1;
+        int historyLength = getVarint(in);
+        if (historyLength > in.remaining()) {
+            throw new IOException("saved game is truncated");
+        }
+        int[] history = new int[historyLength];
+        for (int i = 0; i < historyLength; i++) {
+            int sq = getVarint(in) - 1;
+            if (sq == -1) {
+                sq = Position.PASS;
+            } else if (sq >= squares 
+                    || board.play(sq, player1 ? Mailbox.BLACK : Mailbox.WHITE) == 0) {
+                throw new IOException("saved game has an illegal move");
+            }
+            history[i] = sq;
+            player1 = !player1;
+        }
+        if (player1 != endPlayer1 || !Arrays.equals(board.toArray(), end)) {
+            throw new IOException("saved moves do not match the saved board");
+        }
+
+        int pendingCount = getVarint(in);
+        if (pendingCount > in.remaining()) {
+            throw new IOException("saved game is truncated");
+        }
+        int[] pending = new int[pendingCount];
+        for (int i = 0; i < pendingCount; i++) {
+            int sq = getVarint(in);
+            if (sq >= squares || end[sq] != Mailbox.EMPTY) {
+                throw new IOException("saved game has a disc on a taken square");
+            }
+            end[sq] = -1;
+            pending[i] = sq;
+        }
+        if (in.hasRemaining()) {
+            throw new IOException("saved game has trailing data");
+        }
+
+        game.restore(size, base, basePlayer1, baseTurns, history, pending);
+    }
+
+    /**
+     * writes the game to a file with a single channel write
+     */
+    public static void write(Othello game, Path path) throws IOException {
+        ByteBuffer buf = encode(game);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (buf.hasRemaining()) {
+                channel.write(buf);
+            }
+        }
+    }
+
+    /**
+     * reads a game from a file into game
+     *
+     * throws IOException if the file cannot be read or is not a valid game
+     */
+    public static void read(Path path, Othello game) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > MAX_BYTES) {
+                throw new IOException("saved game is too large");
+            }
+            ByteBuffer buf = ByteBuffer.allocate((int) size);
+            while (buf.hasRemaining()) {
+                if (channel.read(buf) < 0) {
+                    throw new IOException("saved game is truncated");
+                }
+            }
+            buf.flip();
+            decode(buf, game);
+        }
+    }
+
+    private static void putPosition(ByteBuffer buf, Position p) {
+        buf.put((byte) (p.getCurrentPlayer() ? 1 : 2));
+        buf.putLong(p.getBlack());
+        buf.putLong(p.getWhite());
+    }
+
+    private static Position getPosition(ByteBuffer buf) throws IOException {
+        boolean player1 = getSide(buf);
+        long black = buf.getLong();
+        long white = buf.getLong();
+        return new Position(black, white, player1);
+    }
+
+    /**
+     * returns true if player 1 (black) is to move
+     */
+    private static boolean getSide(ByteBuffer buf) throws IOException {
+        int side = buf.get();
+        if (side != 1 && side != 2) {
+            throw new IOException("saved game has an invalid player");
+        }
+        return side == 1;
+    }
+
+    /**
+     * packs 4 squares to a byte, the number of squares on an even sized
+     * board is always a multiple of 4
+     */
+    private static void putCells(ByteBuffer buf, byte[] cells) {
+        for (int i = 0; i < cells.length; i += 4) {
+            buf.put((byte) (cells[i] | cells[i + 1] << 2 | cells[i + 2] << 4 | cells[i + 3] << 6));
+        }
+    }
+
+    private static byte[] getCells(ByteBuffer buf, int squares) throws IOException {
+        byte[] cells = new byte[squares];
+        for (int i = 0; i < squares; i += 4) {
+            int b = buf.get();
+            for (int k = 0; k < 4; k++) {
+                int disc = (b >>> (2 * k)) & 3;
+                if (disc == 3) {
+                    throw new IOException("saved game has an invalid square");
+                }
+                cells[i + k] = (byte) disc;
+            }
+        }
+        return cells;
+    }
+
+    /**
+     * writes a non-negative int in 7-bit groups, low group first
+     */
+    static void putVarint(ByteBuffer buf, int value) {
+        while ((value & ~0x7f) != 0) {
+            buf.put((byte) ((value & 0x7f) | 0x80));
+            value >>>= 7;
+        }
+        buf.put((byte) value);
+    }
+
+    static int getVarint(ByteBuffer buf) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            int b = buf.get();
+            value |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                if (value < 0) {
+                    throw new IOException("saved game has an invalid length");
+                }
+                return value;
+            }
+        }
+        throw new IOException("saved game has an invalid length");
+    }
+}
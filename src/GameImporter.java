@@ -0,0 +1,404 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * imports game databases into a GameArchive and indexes every position
+ * their games reach, run from the command line:
+ *
+ *   java GameImporter archive=DIR [threads=N] FILE...
+ *   java GameImporter archive=DIR query=MOVES
+ *
+ * files ending in .wtb are read as WTHOR databases (a 16 byte header,
+ * then 68 byte records whose last 60 bytes are the moves, 10 * row +
+ * column counting from 1). any other file is read as text, one game per
+ * line written as a move list such as "f5d6c3d3c4", with blank lines and
+ * lines starting with # skipped. passes are left out in both.
+ *
+ * both formats start from the standard position, which is this
+ * program's start position mirrored left to right, so every move is
+ * mirrored as it is read (f5 is played as c5). query takes moves in the
+ * standard notation too and prints them that way.
+ *
+ * one thread reads the files and hands batches of games to a worker per
+ * core. each game is replayed with Othello, passing for a player who has
+ * no move, and rejected at its first illegal move. valid games are added
+ * to the archive, and every position they reach (with the move played
+ * from it and the game's result) to the PositionIndex reached.idx in the
+ * archive directory, which is merged with the one already there.
+ */
+public class GameImporter {
+
+    public static final String INDEX_FILE = "reached.idx";
+
+    private static final int BATCH_GAMES = 1024;
+    private static final int BUFFER_ENTRIES = 1 << 20; // 16 MB per worker
+    private static final int WTHOR_HEADER = 16;
+    private static final int WTHOR_RECORD = 68;
+    private static final int WTHOR_MOVES = 60;
+    private static final byte BAD_MOVE = -1;
+    private static final byte[][] END_OF_INPUT = new byte[0][];
+
+    private final GameArchive archive;
+    private final PositionIndex.Builder index;
+    private final BlockingQueue<byte[][]> queue;
+    private final List<Thread> workers = new ArrayList<Thread>();
+    private volatile IOException failure;
+
+    private List<byte[]> batch = new ArrayList<byte[]>();
+    private long read;
+    private final AtomicLong imported = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong positions = new AtomicLong();
+
+    /**
+     * starts the worker threads, which add games to archive and their
+     * positions to the index at indexPath
+     */
+    public GameImporter(GameArchive archive, Path indexPath, int threads) {
+        this.archive = archive;
+        this.index = new PositionIndex.Builder(indexPath, BUFFER_ENTRIES);
+        this.queue = new ArrayBlockingQueue<byte[][]>(2 * threads);
+        for (int i = 0; i < threads; i++) {
+            Thread t = new Thread(this::work, "importer-" + i);
+            t.start();
+            workers.add(t);
+        }
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        Path dir = null;
+        int threads = Runtime.getRuntime().availableProcessors();
+        String query = null;
+        List<Path> files = new ArrayList<Path>();
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            String name = eq < 0 ? "" : arg.substring(0, eq);
+            String value = arg.substring(eq + 1);
+            if (name.equals("archive")) {
+                dir = Paths.get(value);
+            } else if (name.equals("threads")) {
+                threads = Integer.parseInt(value);
+            } else if (name.equals("query")) {
+                query = value;
+            } else if (eq < 0) {
+                files.add(Paths.get(arg));
+            } else {
+                throw new IllegalArgumentException("unknown option: " + name);
+            }
+        }
+        if (dir == null) {
+            throw new IllegalArgumentException("archive=DIR is required");
+        }
+        if (query != null) {
+            query(dir.resolve(INDEX_FILE), query);
+            return;
+        }
+
+        long t0 = System.nanoTime();
+        GameImporter importer;
+        try (GameArchive archive = GameArchive.open(dir)) {
+            importer = new GameImporter(archive, dir.resolve(INDEX_FILE), threads);
+            try {
+                for (Path file : files) {
+                    importer.importFile(file);
+                }
+            } finally {
+                importer.finish();
+            }
+        }
+        double seconds = (System.nanoTime() - t0) / 1e9;
+        System.out.printf("%,d games read, %,d imported, %,d rejected, %,d positions indexed "
+                + "in %.1f s (%,.0f games/s)%n", importer.getRead(), importer.getImported(),
+                importer.getRejected(), importer.getPositions(), seconds,
+                importer.getRead() / seconds);
+    }
+
+    /**
+     * prints what the index knows about the position after moves
+     */
+    private static void query(Path indexPath, String moves) throws IOException {
+        byte[] squares = parseMoves(moves);
+        Position p = Position.start();
+        for (byte sq : squares) {
+            if (p.legalMoves() == 0) {
+                p = p.play(Position.PASS);
+            }
+            if (sq == BAD_MOVE || p.flips(sq) == 0) {
+                throw new IllegalArgumentException("illegal move in " + moves);
+            }
+            p = p.play(sq);
+        }
+        PositionIndex.Stats stats = PositionIndex.open(indexPath).lookup(p);
+        System.out.printf("reached %,d times: %,d black wins, %,d white wins, %,d draws, "
+                + "%,d unfinished%n", stats.getCount(), stats.getResults(1),
+                stats.getResults(2), stats.getResults(3), stats.getResults(0));
+        for (int sq = 0; sq <= PositionIndex.END; sq++) {
+            if (stats.getNext(sq) > 0) {
+                String name = sq == PositionIndex.END ? "(end)"
+                        : sq == PositionIndex.PASS_MOVE ? "pass" : standardName(sq);
+                System.out.printf("  %-5s %,d%n", name, stats.getNext(sq));
+            }
+        }
+    }
+
+    /**
+     * reads the games in file and queues them for the workers
+     */
+    public void importFile(Path file) throws IOException {
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(file), 1 << 16)) {
+            if (file.getFileName().toString().toLowerCase().endsWith(".wtb")) {
+                readWthor(new DataInputStream(in), file);
+            } else {
+                readText(in);
+            }
+        }
+    }
+
+    private void readWthor(DataInputStream in, Path file) throws IOException {
+        byte[] header = new byte[WTHOR_HEADER];
+        in.readFully(header);
+        // little endian counts
+        long games = (header[4] & 0xffL) | (header[5] & 0xffL) << 8
+                | (header[6] & 0xffL) << 16 | (header[7] & 0xffL) << 24;
+        if (header[12] != 0 && header[12] != Bitboard.SIZE) {
+            throw new IOException("not an 8x8 WTHOR database: " + file);
+        }
+        byte[] record = new byte[WTHOR_RECORD];
+        for (long g = 0; g < games; g++) {
+            try {
+                in.readFully(record);
+            } catch (EOFException e) {
+                throw new IOException("WTHOR database is truncated: " + file);
+            }
+            int start = WTHOR_RECORD - WTHOR_MOVES;
+            int n = 0;
+            while (n < WTHOR_MOVES && record[start + n] != 0) {
+                n++;
+            }
+            byte[] moves = new byte[n];
+            for (int i = 0; i < n; i++) {
+                int m = record[start + i] & 0xff;
+                int row = m / 10;
+                int col = m % 10;
+                moves[i] = row >= 1 && row <= 8 && col >= 1 && col <= 8
+                        ? (byte) Bitboard.square(row - 1, 8 - col) : BAD_MOVE;
+            }
+            queue(moves);
+        }
+    }
+
+    private void readText(InputStream in) throws IOException {
+        BufferedReader reader = new BufferedReader(
+                new InputStreamReader(in, StandardCharsets.US_ASCII));
+        String line;
+        while ((line = reader.readLine()) != null) {
+            line = line.trim();
+            if (!line.isEmpty() && !line.startsWith("#")) {
+                queue(parseMoves(line));
+            }
+        }
+    }
+
+    /**
+     * returns the moves of a move list such as "f5d6c3", mirrored into
+     * this program's orientation. anything that is not a square becomes
+     * BAD_MOVE, so the game is rejected when it is replayed
+     */
+    static byte[] parseMoves(String text) {
+        // a lone character at the end still takes a (bad) move
+        byte[] moves = new byte[(text.length() + 1) / 2];
+        int n = 0;
+        int i = 0;
+        while (i < text.length()) {
+            char c = Character.toLowerCase(text.charAt(i));
+            if (Character.isWhitespace(c)) {
+                i++;
+                continue;
+            }
+            char d = i + 1 < text.length() ? text.charAt(i + 1) : ' ';
+            moves[n++] = c >= 'a' && c <= 'h' && d >= '1' && d <= '8'
+                    ? (byte) Bitboard.square(d - '1', 7 - (c - 'a')) : BAD_MOVE;
+            i += 2;
+        }
+        return Arrays.copyOf(moves, n);
+    }
+
+    /**
+     * returns the name of a square in the standard orientation
+     */
+    static String standardName(int square) {
+        return "" + (char) ('a' + 7 - Bitboard.col(square)) + (Bitboard.row(square) + 1);
+    }
+
+    private void queue(byte[] moves) throws IOException {
+        read++;
+        batch.add(moves);
+        if (batch.size() == BATCH_GAMES) {
+            flushBatch();
+        }
+    }
+
+    private void flushBatch() throws IOException {
+        if (batch.isEmpty()) {
+            return;
+        }
+        put(batch.toArray(new byte[0][]));
+        batch = new ArrayList<byte[]>();
+    }
+
+    private void put(byte[][] games) throws IOException {
+        try {
+            queue.put(games);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("import interrupted");
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * waits for the queued games and writes the index
+     *
+     * throws IOException if a game or the index could not be written
+     */
+    public void finish() throws IOException {
+        try {
+            flushBatch();
+        } finally {
+            for (int i = 0; i < workers.size(); i++) {
+                try {
+                    queue.put(END_OF_INPUT);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            for (Thread t : workers) {
+                try {
+                    t.join();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+        index.close();
+    }
+
+    /**
+     * worker thread: replays and stores the games of each batch
+     */
+    private void work() {
+        Othello game = new Othello();
+        PositionIndex.Builder.Buffer buffer = index.buffer();
+        // per ply of the game being replayed: position key and next move
+        long[] keys = new long[2 * WTHOR_MOVES + 2];
+        int[] next = new int[keys.length];
+        long[] canonical = new long[2];
+        try {
+            while (true) {
+                byte[][] games = queue.take();
+                if (games == END_OF_INPUT) {
+                    break;
+                }
+                for (byte[] moves : games) {
+                    if (failure != null) {
+                        continue; // drain the queue so the reader does not block
+                    }
+                    int plies = replay(moves, game, keys, next, canonical);
+                    if (plies < 0) {
+                        rejected.incrementAndGet();
+                        continue;
+                    }
+                    long id = archive.add(game);
+                    int result = game.endGame();
+                    for (int i = 0; i < plies; i++) {
+                        buffer.add(keys[i], PositionIndex.value(id, i, next[i], result));
+                    }
+                    imported.incrementAndGet();
+                    positions.addAndGet(plies);
+                }
+            }
+            buffer.finish();
+        } catch (IOException e) {
+            failure = e;
+        } catch (InterruptedException e) {
+            failure = new IOException("import interrupted");
+        }
+    }
+
+    /**
+     * plays moves from the start position on game, filling in the key of
+     * every position reached and the move played from it (in canonical
+     * orientation). returns the number of positions, or -1 if a move is
+     * illegal
+     */
+    private static int replay(byte[] moves, Othello game, long[] keys, int[] next,
+            long[] canonical) {
+        game.reset();
+        int ply = 0;
+        int i = 0;
+        while (true) {
+            long black = game.getBlack();
+            long white = game.getWhite();
+            boolean player1 = game.getCurrentPlayer();
+            int t = Symmetry.canonical(black, white, canonical);
+            keys[ply] = Zobrist.hash(canonical[0], canonical[1], player1);
+            if (i == moves.length) {
+                next[ply++] = PositionIndex.END;
+                return ply;
+            }
+            long legal = player1 ? game.getP1Moves() : game.getP2Moves();
+            if (legal == 0) {
+                if (game.getGameOver()) {
+                    return -1; // moves left after the game ended
+                }
+                next[ply++] = PositionIndex.PASS_MOVE;
+                game.skip();
+                continue;
+            }
+            int sq = moves[i++];
+            if (sq == BAD_MOVE || !game.makeMove(sq)) {
+                return -1;
+            }
+            next[ply++] = Symmetry.square(t, sq);
+        }
+    }
+
+    public long getRead() {
+        return read;
+    }
+
+    public long getImported() {
+        return imported.get();
+    }
+
+    public long getRejected() {
+        return rejected.get();
+    }
+
+    /**
+     * returns the number of positions added to the index
+     */
+    public long getPositions() {
+        return positions.get();
+    }
+}
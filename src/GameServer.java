@@ -0,0 +1,500 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+
+/**
+ * game server: every connection gets its own Othello game, played with
+ * a line based text protocol. run from the command line:
+ *
+ *   java GameServer [port=N] [dir=SAVE_DIRECTORY] [resident=N] [book=FILE]
+ *
+ * commands, one per line, each answered with one line starting with
+ * OK or ERR:
+ *   TRY row col   places a disc (Othello.tryCell)
+ *   PLAY          plays the placed disc (Othello.playTurn)
+ *   UNDO, REDO    Othello.undo, Othello.redo
+ *   SKIP          Othello.skip
+ *   RESET [size]  starts a new game, on a size x size board if given
+ *   MOVES         legal moves for the player to move, as row,col pairs
+ *   BOOK          opening book moves for the player to move, best first,
+ *                 as row,col:score (none off the book or the 8x8 board)
+ *   BOARD         size x size cells (0 empty, 1 black, 2 white), player to move
+ *                 (1 or 2), black's score, white's score, winner (0 if
+ *                 the game is not over)
+ *   SAVE name     saves the game to name.dat in the save directory
+ *   LOAD name     loads it back
+ *   QUIT          closes the connection
+ *
+ * one thread runs a Selector over all connections, so thousands of
+ * games cost a few kilobytes each rather than a thread each. an idle
+ * connection holds only its line buffer and its game: the buffer for
+ * its answers is borrowed from a shared pool while they wait to be
+ * written and handed back once they have been. commands
+ * already received are answered in order. a client that does not read
+ * its answers is not read from either: once more than OUT_LIMIT bytes of
+ * answers are waiting, its input is left in the socket until they drain.
+ * SAVE and LOAD do file I/O on the selector thread.
+ *
+ * with resident=N the games are kept in a SessionStore, so at most N of
+ * them are in memory and the rest are passivated to the sessions directory
+ * inside the save directory.
+ * with book=FILE the BOOK command answers from the OpeningBook in FILE.
+ */
+public class GameServer implements Runnable, Closeable {
+
+    public static final int DEFAULT_PORT = 7777;
+
+    private static final int LINE_LIMIT = 256;
+    private static final int OUT_LIMIT = 16 * 1024;
+    private static final int MAX_REPLY = 1024; // a 16x16 BOARD is over 256
+    private static final long ACCEPT_RETRY_MILLIS = 100;
+    private static final int MAX_SPARE = 64; // answer buffers kept for reuse
+
+    private final Selector selector;
+    private final ServerSocketChannel server;
+    private final SelectionKey acceptKey;
+    private long acceptRetry; // when to accept again after a failure, 0 if accepting
+    private final Path saveDir;
+    private final SessionStore store; // null if every game stays in memory
+    private volatile OpeningBook book; // null if BOOK is not served
+    private final ArrayDeque<ByteBuffer> spare = new ArrayDeque<ByteBuffer>();
+    private long nextSession;
+    private volatile boolean running = true;
+    private volatile int sessions; // only changed on the server thread
+
+    /**
+     * opens the server socket, run() then serves it
+     */
+    public GameServer(InetSocketAddress address, Path saveDir) throws IOException {
+        this(address, saveDir, null);
+    }
+
+    /**
+     * as above, keeping the games in store instead of in each session
+     */
+    public GameServer(InetSocketAddress address, Path saveDir, SessionStore store)
+            throws IOException {
+        this.saveDir = saveDir;
+        this.store = store;
+        selector = Selector.open();
+        server = ServerSocketChannel.open();
+        server.bind(address, 1024);
+        server.configureBlocking(false);
+        acceptKey = server.register(selector, SelectionKey.OP_ACCEPT);
+    }
+
+    public static void main(String[] args) throws IOException {
+        int port = DEFAULT_PORT;
+        Path dir = Paths.get("saves");
+        int resident = 0;
+        OpeningBook book = null;
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (eq < 0) {
+                throw new IllegalArgumentException("expected name=value: " + arg);
+            }
+            String name = arg.substring(0, eq);
+            String value = arg.substring(eq + 1);
+            if (name.equals("port")) {
+                port = Integer.parseInt(value);
+            } else if (name.equals("dir")) {
+                dir = Paths.get(value);
+            } else if (name.equals("resident")) {
+                resident = Integer.parseInt(value);
+            } else if (name.equals("book")) {
+                book = OpeningBook.open(Paths.get(value));
+            } else {
+                throw new IllegalArgumentException("unknown option: " + name);
+            }
+        }
+        Files.createDirectories(dir);
+        SessionStore store = resident > 0 ? new SessionStore(dir.resolve("sessions"), resident) : null;
+        GameServer gs = new GameServer(new InetSocketAddress(port), dir, store);
+        gs.setBook(book);
+        System.out.println("listening on port " + gs.getPort());
+        gs.run();
+    }
+
+    /**
+     * sets the opening book the BOOK command answers from, null for none
+     */
+    public void setBook(OpeningBook book) {
+        this.book = book;
+    }
+
+    /**
+     * serves connections until close is called
+     *
+     * a connection that fails is closed on its own, only a failure of
+     * the selector stops the server (with an IllegalStateException)
+     */
+    public void run() {
+        try {
+            while (running) {
+                selector.select(acceptRetry == 0 ? 0 : ACCEPT_RETRY_MILLIS);
+                if (acceptRetry != 0 && System.currentTimeMillis() >= acceptRetry) {
+                    resumeAccept();
+                }
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        accept();
+                    } else {
+                        serve(key);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("game server failed", e);
+        } finally {
+            for (SelectionKey key : selector.keys()) {
+                closeQuietly(key);
+            }
+            try {
+                selector.close();
+                server.close();
+            } catch (IOException e) {
+                // already shutting down
+            }
+        }
+    }
+
+    private void accept() {
+        while (true) {
+            SocketChannel channel;
+            try {
+                channel = server.accept();
+            } catch (IOException e) {
+                // out of file descriptors, say: the clients wait in the
+                // backlog until a connection closes or a while has passed
+                System.err.println("game server: accept failed: " + e);
+                acceptKey.interestOps(0);
+                acceptRetry = System.currentTimeMillis() + ACCEPT_RETRY_MILLIS;
+                return;
+            }
+            if (channel == null) {
+                return;
+            }
+            Session s = new Session(nextSession++);
+            if (store == null) {
+                s.game = new Othello();
+            }
+            try {
+                channel.configureBlocking(false);
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                channel.register(selector, SelectionKey.OP_READ, s);
+            } catch (IOException e) {
+                // the client reset the connection already
+                try {
+                    channel.close();
+                } catch (IOException ignored) {
+                    // gone either way
+                }
+                continue;
+            }
+            sessions++;
+        }
+    }
+
+    private void resumeAccept() {
+        acceptKey.interestOps(SelectionKey.OP_ACCEPT);
+        acceptRetry = 0;
+    }
+
+    /**
+     * reads what the client sent, answers every complete command while
+     * there is room for the answers, and writes as much as the socket takes
+     */
+    private void serve(SelectionKey key) {
+        SocketChannel channel = (SocketChannel) key.channel();
+        Session s = (Session) key.attachment();
+        try {
+            if (key.isReadable() && channel.read(s.in) < 0) {
+                closeQuietly(key);
+                return;
+            }
+            execute(s);
+            if (waiting(s) > 0) {
+                s.out.flip();
+                channel.write(s.out);
+                s.out.compact();
+            }
+            if (waiting(s) == 0 && s.closing) {
+                closeQuietly(key);
+                return;
+            }
+            // answers were written, so commands held back may run now
+            execute(s);
+        } catch (IOException e) {
+            closeQuietly(key);
+            return;
+        }
+        release(s);
+
+        int ops = 0;
+        if (!s.closing && waiting(s) < OUT_LIMIT) {
+            ops |= SelectionKey.OP_READ;
+        }
+        if (waiting(s) > 0) {
+            ops |= SelectionKey.OP_WRITE;
+        }
+        key.interestOps(ops);
+    }
+
+    /**
+     * answers the complete lines in s.in until the output is full
+     */
+    private void execute(Session s) {
+        ByteBuffer in = s.in;
+        in.flip();
+        while (!s.closing && waiting(s) < OUT_LIMIT) {
+            int eol = -1;
+            for (int i = in.position(); i < in.limit(); i++) {
+                if (in.get(i) == '\n') {
+                    eol = i;
+                    break;
+                }
+            }
+            if (eol < 0) {
+                if (in.remaining() == in.capacity()) {
+                    reply(s, "ERR line too long");
+                    s.closing = true;
+                }
+                break;
+            }
+            String line = new String(in.array(), in.position(), eol - in.position(),
+                    StandardCharsets.US_ASCII).trim();
+            in.position(eol + 1);
+            Othello game = s.game;
+            if (game == null) {
+                try {
+                    game = store.get(s.id);
+                } catch (IOException e) {
+                    reply(s, "ERR game could not be restored");
+                    continue;
+                }
+            }
+            reply(s, s.command(game, line, saveDir, book));
+        }
+        in.compact();
+    }
+
+    private void reply(Session s, String text) {
+        if (s.out == null) {
+            s.out = spare.isEmpty() ? ByteBuffer.allocate(OUT_LIMIT + MAX_REPLY) : spare.pop();
+        }
+        byte[] bytes = text.getBytes(StandardCharsets.US_ASCII);
+        s.out.put(bytes, 0, Math.min(bytes.length, MAX_REPLY - 1));
+        s.out.put((byte) '\n');
+    }
+
+    /**
+     * returns the number of bytes of answers waiting to be written
+     */
+    private static int waiting(Session s) {
+        return s.out == null ? 0 : s.out.position();
+    }
+
+    /**
+     * hands the answer buffer of s back to the pool if it is empty
+     */
+    private void release(Session s) {
+        if (s.out != null && s.out.position() == 0) {
+            if (spare.size() < MAX_SPARE) {
+                s.out.clear();
+                spare.push(s.out);
+            }
+            s.out = null;
+        }
+    }
+
+    private void closeQuietly(SelectionKey key) {
+        key.cancel();
+        if (key.attachment() instanceof Session) {
+            Session s = (Session) key.attachment();
+            s.out = null; // may hold unsent answers, so not reused
+            sessions--;
+            if (acceptRetry != 0) {
+                resumeAccept();
+            }
+            if (store != null) {
+                try {
+                    store.remove(s.id);
+                } catch (IOException e) {
+                    // a passivated game left behind is deleted with the next store
+                }
+            }
+        }
+        try {
+            key.channel().close();
+        } catch (IOException e) {
+            // the client is gone either way
+        }
+    }
+
+    /**
+     * returns the port the server listens on
+     */
+    public int getPort() {
+        return server.socket().getLocalPort();
+    }
+
+    /**
+     * returns the number of connected clients
+     */
+    public int getSessions() {
+        return sessions;
+    }
+
+    /**
+     * stops run() and closes every connection
+     */
+    public void close() {
+        running = false;
+        selector.wakeup();
+    }
+
+    /**
+     * returns the store the games are kept in, or null
+     */
+    public SessionStore getStore() {
+        return store;
+    }
+
+    /**
+     * one client's game and its buffered input and output
+     */
+    static class Session {
+        final long id;
+        Othello game; // null if the game is in the SessionStore
+        final ByteBuffer in = ByteBuffer.allocate(LINE_LIMIT);
+        ByteBuffer out; // null while no answers are waiting
+        boolean closing;
+
+        Session(long id) {
+            this.id = id;
+        }
+
+        /**
+         * runs one command line on game and returns the answer
+         */
+        String command(Othello game, String line, Path saveDir, OpeningBook book) {
+            String[] words = line.split("\\s+");
+            String name = words[0].toUpperCase();
+            if (name.equals("TRY") && words.length == 3) {
+                int row;
+                int col;
+                try {
+                    row = Integer.parseInt(words[1]);
+                    col = Integer.parseInt(words[2]);
+                } catch (NumberFormatException e) {
+                    return "ERR bad square";
+                }
+                int size = game.getSize();
+                if (row < 0 || row >= size || col < 0 || col >= size) {
+                    return "ERR bad square";
+                }
+                game.tryCell(row, col);
+                return "OK";
+            } else if (name.equals("PLAY") && words.length == 1) {
+                int result = game.playTurn(game.getMoves());
+                if (result == 0) {
+                    return "OK";
+                } else if (result == -1) {
+                    return "ERR no moves";
+                } else if (result == 1) {
+                    return "ERR multiple discs";
+                } else if (result == 2) {
+                    return "ERR invalid move";
+                }
+                return "ERR game over";
+            } else if (name.equals("UNDO") && words.length == 1) {
+                game.undo();
+                return "OK";
+            } else if (name.equals("REDO") && words.length == 1) {
+                game.redo();
+                return "OK";
+            } else if (name.equals("SKIP") && words.length == 1) {
+                game.skip();
+                return "OK";
+            } else if (name.equals("RESET") && words.length == 1) {
+                game.reset();
+                return "OK";
+            } else if (name.equals("RESET") && words.length == 2) {
+                int size;
+                try {
+                    size = Integer.parseInt(words[1]);
+                } catch (NumberFormatException e) {
+                    return "ERR bad size";
+                }
+                if (!Mailbox.isValidSize(size)) {
+                    return "ERR bad size";
+                }
+                game.reset(size);
+                return "OK";
+            } else if (name.equals("MOVES") && words.length == 1) {
+                int size = game.getSize();
+                StringBuilder sb = new StringBuilder("OK");
+                for (int sq = 0; sq < size * size; sq++) {
+                    if (game.isLegalMove(sq)) {
+                        sb.append(' ').append(sq / size).append(',').append(sq % size);
+                    }
+                }
+                return sb.toString();
+            } else if (name.equals("BOOK") && words.length == 1) {
+                if (book == null) {
+                    return "ERR no book";
+                }
+                StringBuilder sb = new StringBuilder("OK");
+                if (game.getSize() == Bitboard.SIZE) {
+                    for (OpeningBook.Entry e : book.lookup(game)) {
+                        sb.append(' ').append(Bitboard.row(e.getMove())).append(',')
+                                .append(Bitboard.col(e.getMove())).append(':').append(e.getScore());
+                    }
+                }
+                return sb.toString();
+            } else if (name.equals("BOARD") && words.length == 1) {
+                StringBuilder sb = new StringBuilder("OK ");
+                for (int row = 0; row < game.getSize(); row++) {
+                    for (int col = 0; col < game.getSize(); col++) {
+                        sb.append(game.getCell(row, col));
+                    }
+                }
+                sb.append(' ').append(game.getCurrentPlayer() ? 1 : 2);
+                sb.append(' ').append(game.getP1Score()).append(' ').append(game.getP2Score());
+                sb.append(' ').append(game.endGame());
+                return sb.toString();
+            } else if ((name.equals("SAVE") || name.equals("LOAD")) && words.length == 2) {
+                if (saveDir == null || !words[1].matches("[A-Za-z0-9_-]{1,64}")) {
+                    return "ERR bad name";
+                }
+                Path path = saveDir.resolve(words[1] + ".dat");
+                if (name.equals("SAVE")) {
+                    return game.save(path) ? "OK" : "ERR game could not be saved";
+                }
+                return game.load(path) ? "OK" : "ERR game could not be loaded";
+            } else if (name.equals("QUIT") && words.length == 1) {
+                closing = true;
+                return "OK bye";
+            }
+            return "ERR unknown command";
+        }
+    }
+}
@@ -0,0 +1,244 @@
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Random;
+
+/**
+ * synthetic load for GameServer, run from the command line:
+ *
+ *   java LoadGenerator [host=HOST] [port=N] [clients=N] [seconds=N] [resident=N]
+ *
+ * without host, a GameServer is started in this JVM on a loopback port,
+ * keeping at most resident games in memory if resident is given (see
+ * SessionStore), and the store's counters are printed at the end.
+ * each client plays random games over its own connection, one command
+ * at a time (MOVES, then TRY and PLAY a random legal move, SKIP or RESET
+ * when there is none, with the odd BOARD and UNDO), all driven by one
+ * Selector. the time from sending a command to reading its answer is
+ * recorded, and throughput and latency percentiles are printed at the end.
+ */
+public class LoadGenerator {
+
+    private final InetSocketAddress address;
+    private final int clients;
+    private final long nanos;
+    private final Random random = new Random(1);
+
+    private long[] latencies = new long[1 << 16];
+    private int count;
+    private int errors;
+
+    public LoadGenerator(InetSocketAddress address, int clients, long nanos) {
+        this.address = address;
+        this.clients = clients;
+        this.nanos = nanos;
+    }
+
+    public static void main(String[] args) throws IOException {
+        String host = null;
+        int port = GameServer.DEFAULT_PORT;
+        int clients = 1000;
+        int seconds = 10;
+        int resident = 0;
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (eq < 0) {
+                throw new IllegalArgumentException("expected name=value: " + arg);
+            }
+            String name = arg.substring(0, eq);
+            String value = arg.substring(eq + 1);
+            if (name.equals("host")) {
+                host = value;
+            } else if (name.equals("port")) {
+                port = Integer.parseInt(value);
+            } else if (name.equals("clients")) {
+                clients = Integer.parseInt(value);
+            } else if (name.equals("seconds")) {
+                seconds = Integer.parseInt(value);
+            } else if (name.equals("resident")) {
+                resident = Integer.parseInt(value);
+            } else {
+                throw new IllegalArgumentException("unknown option: " + name);
+            }
+        }
+
+        GameServer server = null;
+        InetSocketAddress address;
+        if (host == null) {
+            SessionStore store = resident > 0
+                    ? new SessionStore(Files.createTempDirectory("sessions"), resident) : null;
+            server = new GameServer(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0),
+                    null, store);
+            new Thread(server, "game-server").start();
+            address = new InetSocketAddress(InetAddress.getLoopbackAddress(), server.getPort());
+        } else {
+            address = new InetSocketAddress(host, port);
+        }
+        try {
+            LoadGenerator load = new LoadGenerator(address, clients, seconds * 1000000000L);
+            load.run();
+            load.report();
+            if (server != null && server.getStore() != null) {
+                System.out.println("sessions: " + server.getStore());
+            }
+        } finally {
+            if (server != null) {
+                server.close();
+            }
+        }
+    }
+
+    /**
+     * connects the clients and plays until the time is up
+     */
+    public void run() throws IOException {
+        try (Selector selector = Selector.open()) {
+            for (int i = 0; i < clients; i++) {
+                SocketChannel channel = SocketChannel.open(address);
+                channel.configureBlocking(false);
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                Client c = new Client();
+                SelectionKey key = channel.register(selector, SelectionKey.OP_READ, c);
+                send(key, c, "MOVES");
+            }
+
+            long end = System.nanoTime() + nanos;
+            while (System.nanoTime() < end) {
+                selector.select(100);
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (key.isValid()) {
+                        handle(key);
+                    }
+                }
+            }
+            for (SelectionKey key : selector.keys()) {
+                key.channel().close();
+            }
+        }
+    }
+
+    private void handle(SelectionKey key) throws IOException {
+        SocketChannel channel = (SocketChannel) key.channel();
+        Client c = (Client) key.attachment();
+        if (key.isWritable()) {
+            channel.write(c.out);
+            if (!c.out.hasRemaining()) {
+                key.interestOps(SelectionKey.OP_READ);
+            }
+        }
+        if (!key.isReadable()) {
+            return;
+        }
+        if (channel.read(c.in) < 0) {
+            throw new IOException("server closed the connection");
+        }
+        for (int i = 0; i < c.in.position(); i++) {
+            if (c.in.get(i) == '\n') {
+                long now = System.nanoTime();
+                String reply = new String(c.in.array(), 0, i, StandardCharsets.US_ASCII);
+                c.in.flip();
+                c.in.position(i + 1);
+                c.in.compact();
+                record(now - c.sentAt);
+                send(key, c, next(c, reply));
+                return;
+            }
+        }
+    }
+
+    /**
+     * returns the command to send after reply to c's last command
+     */
+    private String next(Client c, String reply) {
+        if (reply.startsWith("ERR")) {
+            errors++;
+            c.passes = 0;
+            return "RESET";
+        }
+        if (c.last.equals("MOVES")) {
+            String[] moves = reply.split(" ");
+            if (moves.length == 1) {
+                // no moves: pass, or start again if neither player has one
+                return ++c.passes == 2 ? "RESET" : "SKIP";
+            }
+            c.passes = 0;
+            return "TRY " + moves[1 + random.nextInt(moves.length - 1)].replace(',', ' ');
+        } else if (c.last.startsWith("TRY")) {
+            return "PLAY";
+        }
+        if (c.last.equals("RESET")) {
+            c.passes = 0;
+        }
+        int r = random.nextInt(20);
+        if (r == 0) {
+            return "BOARD";
+        } else if (r == 1 && c.last.equals("PLAY")) {
+            return "UNDO";
+        }
+        return "MOVES";
+    }
+
+    private void send(SelectionKey key, Client c, String command) throws IOException {
+        c.last = command;
+        c.out.clear();
+        c.out.put(command.getBytes(StandardCharsets.US_ASCII)).put((byte) '\n');
+        c.out.flip();
+        c.sentAt = System.nanoTime();
+        ((SocketChannel) key.channel()).write(c.out);
+        if (c.out.hasRemaining()) {
+            key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+        }
+    }
+
+    private void record(long latency) {
+        if (count == latencies.length) {
+            latencies = Arrays.copyOf(latencies, count * 2);
+        }
+        latencies[count++] = latency;
+    }
+
+    /**
+     * prints throughput and latency percentiles
+     */
+    public void report() {
+        long[] sorted = Arrays.copyOf(latencies, count);
+        Arrays.sort(sorted);
+        System.out.printf("%d clients, %,d requests (%d errors), %,.0f requests/s%n",
+                clients, count, errors, count * 1e9 / nanos);
+        if (count == 0) {
+            return;
+        }
+        double[] percentiles = {50, 90, 99, 99.9};
+        StringBuilder sb = new StringBuilder("latency (us):");
+        for (double p : percentiles) {
+            int i = (int) Math.min(count - 1, Math.ceil(p / 100 * count) - 1);
+            sb.append(String.format(" p%s %.0f", p == (int) p ? "" + (int) p : "" + p,
+                    sorted[Math.max(0, i)] / 1e3));
+        }
+        sb.append(String.format(" max %.0f", sorted[count - 1] / 1e3));
+        System.out.println(sb);
+    }
+
+    /**
+     * one connection and the command it is waiting on
+     */
+    private static class Client {
+        final ByteBuffer in = ByteBuffer.allocate(1024);
+        final ByteBuffer out = ByteBuffer.allocate(64);
+        String last;
+        long sentAt;
+        int passes;
+    }
+}
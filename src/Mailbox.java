@@ -0,0 +1,289 @@
+import java.util.Arrays;
+
+/**
+ * board of any even size from 4 to 16, used for the variants that do
+ * not fit the 64-bit masks of Bitboard
+ *
+ * the cells are one byte array with a border of BORDER cells all around
+ * the board (a padded mailbox), so a walk in any of the 8 directions
+ * stops at the edge without checking rows and columns. outside this
+ * class squares are numbered row * size + col, as on the 8x8 board.
+ * played moves are kept on a stack so they can be taken back.
+ */
+public final class Mailbox {
+
+    public static final int MIN_SIZE = 4;
+    public static final int MAX_SIZE = 16;
+
+    public static final byte EMPTY = 0;
+    public static final byte BLACK = 1;
+    public static final byte WHITE = 2;
+    private static final byte BORDER = 3;
+
+    private final int size;
+    private final int stride; // size plus the border on either side
+    private final byte[] cells;
+    private final int[] directions;
+    private int blackCount;
+    private int whiteCount;
+
+    // cells flipped by the moves on the stack, the first flip of each
+    // move, and the cell each move was played on
+    private int[] flipped = new int[256];
+    private int flippedTop;
+    private int[] moveStart = new int[64];
+    private int[] movePlaced = new int[64];
+    private int moveTop;
+
+    /**
+     * a board of the given size with the 4 starting discs in the middle
+     */
+    public Mailbox(int size) {
+        if (!isValidSize(size)) {
+            throw new IllegalArgumentException("board size must be even, from "
+                    + MIN_SIZE + " to " + MAX_SIZE + ": " + size);
+        }
+        this.size = size;
+        this.stride = size + 2;
+        this.cells = new byte[stride * stride];
+        this.directions = new int[] {
+            1, -1, stride, -stride, stride + 1, stride - 1, -stride + 1, -stride - 1
+        };
+        reset();
+    }
+
+    public static boolean isValidSize(int size) {
+        return size >= MIN_SIZE && size <= MAX_SIZE && size % 2 == 0;
+    }
+
+    /**
+     * puts back the starting discs and forgets the played moves
+     */
+    public void reset() {
+        Arrays.fill(cells, BORDER);
+        for (int row = 0; row < size; row++) {
+            Arrays.fill(cells, index(row * size), index(row * size) + size, EMPTY);
+        }
+        int mid = size / 2;
+        cells[index((mid - 1) * size + mid - 1)] = BLACK;
+        cells[index(mid * size + mid)] = BLACK;
+        cells[index((mid - 1) * size + mid)] = WHITE;
+        cells[index(mid * size + mid - 1)] = WHITE;
+        blackCount = 2;
+        whiteCount = 2;
+        clearMoves();
+    }
+
+    private int index(int square) {
+        return (square / size + 1) * stride + square % size + 1;
+    }
+
+    private int square(int index) {
+        return (index / stride - 1) * size + index % stride - 1;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * returns EMPTY, BLACK or WHITE
+     */
+    public int get(int square) {
+        return cells[index(square)];
+    }
+
+    /**
+     * puts disc (EMPTY, BLACK or WHITE) on square. moves played before
+     * cannot be undone afterwards
+     */
+    public void set(int square, int disc) {
+        if (disc < EMPTY || disc > WHITE) {
+            throw new IllegalArgumentException("invalid disc " + disc);
+        }
+        int at = index(square);
+        count(cells[at], -1);
+        cells[at] = (byte) disc;
+        count(disc, 1);
+        clearMoves();
+    }
+
+    private void count(int disc, int n) {
+        if (disc == BLACK) {
+            blackCount += n;
+        } else if (disc == WHITE) {
+            whiteCount += n;
+        }
+    }
+
+    /**
+     * returns the number of discs of one colour on the board
+     */
+    public int getCount(int disc) {
+        return disc == BLACK ? blackCount : whiteCount;
+    }
+
+    /**
+     * returns the discs playing square would flip for own (BLACK or
+     * WHITE), 0 if it is not a legal move
+     */
+    public int flipCount(int square, int own) {
+        return flips(index(square), own);
+    }
+
+    public boolean isLegal(int square, int own) {
+        return legal(index(square), own);
+    }
+
+    /**
+     * as flips(at, own) > 0, but stops at the first run it finds
+     */
+    private boolean legal(int at, int own) {
+        if (cells[at] != EMPTY) {
+            return false;
+        }
+        int opp = 3 - own;
+        for (int d : directions) {
+            int i = at + d;
+            if (cells[i] != opp) {
+                continue;
+            }
+            do {
+                i += d;
+            } while (cells[i] == opp);
+            if (cells[i] == own) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private int flips(int at, int own) {
+        if (cells[at] != EMPTY) {
+            return 0;
+        }
+        int opp = 3 - own;
+        int total = 0;
+        for (int d : directions) {
+            int i = at + d;
+            int run = 0;
+            // the border stops the walk, it is neither colour
+            while (cells[i] == opp) {
+                i += d;
+                run++;
+            }
+            if (run > 0 && cells[i] == own) {
+                total += run;
+            }
+        }
+        return total;
+    }
+
+    /**
+     * returns true if own has at least one legal move
+     */
+    public boolean hasMove(int own) {
+        for (int row = 1; row <= size; row++) {
+            for (int at = row * stride + 1, end = at + size; at < end; at++) {
+                if (cells[at] == EMPTY && legal(at, own)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * puts the legal moves of own into squares, in square order, and
+     * returns how many there are. squares needs room for size * size
+     */
+    public int legalMoves(int own, int[] squares) {
+        int n = 0;
+        for (int row = 1; row <= size; row++) {
+            for (int at = row * stride + 1, end = at + size; at < end; at++) {
+                if (cells[at] == EMPTY && legal(at, own)) {
+                    squares[n++] = square(at);
+                }
+            }
+        }
+        return n;
+    }
+
+    /**
+     * plays own on square and flips the discs it takes. returns the
+     * number flipped, or 0 (and does nothing) if the move is not legal
+     */
+    public int play(int square, int own) {
+        int at = index(square);
+        if (flips(at, own) == 0) {
+            return 0;
+        }
+        if (moveTop == moveStart.length) {
+            moveStart = Arrays.copyOf(moveStart, moveTop * 2);
+            movePlaced = Arrays.copyOf(movePlaced, moveTop * 2);
+        }
+        moveStart[moveTop] = flippedTop;
+        movePlaced[moveTop] = at;
+        moveTop++;
+
+        int opp = 3 - own;
+        for (int d : directions) {
+            int i = at + d;
+            while (cells[i] == opp) {
+                i += d;
+            }
+            if (cells[i] != own) {
+                continue;
+            }
+            for (int j = at + d; j != i; j += d) {
+                if (flippedTop == flipped.length) {
+                    flipped = Arrays.copyOf(flipped, flippedTop * 2);
+                }
+                cells[j] = (byte) own;
+                flipped[flippedTop++] = j;
+            }
+        }
+        cells[at] = (byte) own;
+        int n = flippedTop - moveStart[moveTop - 1];
+        count(own, n + 1);
+        count(opp, -n);
+        return n;
+    }
+
+    /**
+     * takes back the last move played, returns false if there is none
+     */
+    public boolean undo() {
+        if (moveTop == 0) {
+            return false;
+        }
+        moveTop--;
+        int at = movePlaced[moveTop];
+        int own = cells[at];
+        int opp = 3 - own;
+        int n = flippedTop - moveStart[moveTop];
+        while (flippedTop > moveStart[moveTop]) {
+            cells[flipped[--flippedTop]] = (byte) opp;
+        }
+        cells[at] = EMPTY;
+        count(own, -n - 1);
+        count(opp, n);
+        return true;
+    }
+
+    private void clearMoves() {
+        moveTop = 0;
+        flippedTop = 0;
+    }
+
+    /**
+     * returns the discs as one byte per square
+     */
+    public byte[] toArray() {
+        byte[] discs = new byte[size * size];
+        for (int sq = 0; sq < discs.length; sq++) {
+            discs[sq] = cells[index(sq)];
+        }
+        return discs;
+    }
+}
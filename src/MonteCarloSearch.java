@@ -0,0 +1,403 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * computer player that uses Monte Carlo tree search (UCT) instead of an
+ * evaluation function
+ *
+ * each playout walks down the tree from the root, taking the child with
+ * the best upper confidence bound, adds the children of the node it ends
+ * on, plays a random game from there and counts the result in every node
+ * on the way back up. the move played most often at the root is chosen.
+ *
+ * the tree lives in preallocated parallel arrays (an arena), with a
+ * node's children in one block, so no objects are created per node. the
+ * positions are not stored, they are replayed from the root on the way
+ * down. several threads search the same tree: a thread counts its visit
+ * in every node as it goes down and only adds the result on the way back,
+ * so until then the visit counts as a loss (a virtual loss) and the other
+ * threads are steered to other lines. the search stops at the time limit
+ * or after a number of playouts. once the arena is full the tree stops
+ * growing and playouts go on from its leaves.
+ */
+public class MonteCarloSearch implements Engine {
+
+    public static final int DEFAULT_NODES = 1 << 20;
+
+    private static final int NOT_EXPANDED = 0;
+    private static final int EXPANDING = -1;
+    private static final int TERMINAL = -2;
+    private static final byte PASS_MOVE = 64;
+    private static final double EXPLORATION = 1.4;
+    private static final int MAX_PATH = 128;
+    private static final long PROGRESS_MILLIS = 250;
+
+    private final int threads;
+    private final long timeLimitMillis;
+    private final long maxPlayouts;
+    private final ExecutorService helpers;
+
+    // the arena: per node the move leading to it, its visits (virtual
+    // losses included), its results for the player who made that move (2
+    // per win, 1 per draw) and its children: NOT_EXPANDED, EXPANDING,
+    // TERMINAL or the first of childCount nodes
+    private final byte[] move;
+    private final byte[] childCount;
+    private final AtomicIntegerArray visits;
+    private final AtomicLongArray results;
+    private final AtomicIntegerArray children;
+    private final AtomicInteger used = new AtomicInteger();
+
+    private final AtomicLong playouts = new AtomicLong();
+    private volatile boolean stopRequested;
+    private volatile SearchListener listener;
+
+    private long rootOwn;
+    private long rootOpp;
+    private long startMillis;
+    private long deadline;
+
+    /**
+     * @param threads number of search threads, including the calling thread
+     * @param timeLimitMillis time budget per move, 0 for no limit
+     * @param maxPlayouts playouts per move, 0 for no limit
+     * @param nodes size of the tree arena
+     */
+    public MonteCarloSearch(int threads, long timeLimitMillis, long maxPlayouts, int nodes) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("need at least 1 thread");
+        }
+        if (timeLimitMillis <= 0 && maxPlayouts <= 0) {
+            throw new IllegalArgumentException("need a time or playout limit");
+        }
+        if (nodes < Bitboard.SQUARES + 1) {
+            throw new IllegalArgumentException("arena too small: " + nodes);
+        }
+        this.threads = threads;
+        this.timeLimitMillis = timeLimitMillis;
+        this.maxPlayouts = maxPlayouts;
+        move = new byte[nodes];
+        childCount = new byte[nodes];
+        visits = new AtomicIntegerArray(nodes);
+        results = new AtomicLongArray(nodes);
+        children = new AtomicIntegerArray(nodes);
+        helpers = threads > 1 ? Executors.newFixedThreadPool(threads - 1, r -> {
+            Thread t = new Thread(r, "mcts-helper");
+            t.setDaemon(true);
+            return t;
+        }) : null;
+    }
+
+    public SearchResult think(Position position) {
+        clearStop();
+        return thinkUnlessStopped(position);
+    }
+
+    public void clearStop() {
+        stopRequested = false;
+    }
+
+    public SearchResult thinkUnlessStopped(Position position) {
+        long start = System.currentTimeMillis();
+        startMillis = start;
+        deadline = timeLimitMillis > 0 ? start + timeLimitMillis : Long.MAX_VALUE;
+        boolean black = position.getCurrentPlayer();
+        rootOwn = black ? position.getBlack() : position.getWhite();
+        rootOpp = black ? position.getWhite() : position.getBlack();
+        playouts.set(0);
+        used.set(1);
+        clearNode(0, PASS_MOVE);
+
+        List<Future<?>> running = new ArrayList<Future<?>>();
+        for (int i = 1; i < threads; i++) {
+            final long seed = start * 31 + i;
+            running.add(helpers.submit(() -> search(seed, false)));
+        }
+        search(start * 31, true);
+        for (Future<?> f : running) {
+            try {
+                f.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException e) {
+                throw new IllegalStateException("search thread failed", e.getCause());
+            }
+        }
+        return result();
+    }
+
+    public void stop() {
+        stopRequested = true;
+    }
+
+    /**
+     * progress is reported by the calling thread a few times a second
+     */
+    public void setListener(SearchListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * stops the helper threads, the engine cannot be used afterwards
+     */
+    public void shutdown() {
+        if (helpers != null) {
+            helpers.shutdownNow();
+        }
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    private void clearNode(int node, byte m) {
+        move[node] = m;
+        childCount[node] = 0;
+        visits.set(node, 0);
+        results.set(node, 0);
+        children.set(node, NOT_EXPANDED);
+    }
+
+    /**
+     * runs playouts until a limit is reached
+     */
+    private void search(long seed, boolean main) {
+        int[] path = new int[MAX_PATH];
+        long random = seed * 0x9e3779b97f4a7c15L | 1;
+        long nextProgress = System.currentTimeMillis() + PROGRESS_MILLIS;
+        while (!stopRequested) {
+            long n = playouts.incrementAndGet();
+            if (maxPlayouts > 0 && n > maxPlayouts) {
+                break;
+            }
+            if ((n & 255) == 0 || main) {
+                long now = System.currentTimeMillis();
+                if (now >= deadline) {
+                    break;
+                }
+                SearchListener l = listener;
+                if (main && l != null && now >= nextProgress) {
+                    nextProgress = now + PROGRESS_MILLIS;
+                    l.progress(result());
+                }
+            }
+            random = playout(path, random);
+        }
+    }
+
+    /**
+     * runs one playout and returns the new random state
+     */
+    private long playout(int[] path, long random) {
+        long own = rootOwn;
+        long opp = rootOpp;
+        int node = 0;
+        int length = 0;
+        visits.incrementAndGet(0);
+        path[length++] = 0;
+
+        int diff; // final disc difference for the player to move at the leaf
+        while (true) {
+            int first = children.get(node);
+            if (first == NOT_EXPANDED) {
+                first = expand(node, own, opp);
+            }
+            if (first == TERMINAL) {
+                diff = Long.bitCount(own) - Long.bitCount(opp);
+                break;
+            }
+            if (first == EXPANDING || first == NOT_EXPANDED) {
+                // another thread is expanding it, or the arena is full
+                random = xorshift(random);
+                diff = rollout(own, opp, random);
+                break;
+            }
+            node = select(node, first);
+            int seen = visits.incrementAndGet(node);
+            path[length++] = node;
+            int sq = move[node];
+            if (sq != PASS_MOVE) {
+                long flips = Bitboard.flips(own, opp, sq);
+                own |= flips | (1L << sq);
+                opp &= ~flips;
+            }
+            long tmp = own;
+            own = opp;
+            opp = tmp;
+            if (length == MAX_PATH) {
+                diff = Long.bitCount(own) - Long.bitCount(opp);
+                break;
+            }
+            if (seen == 1) {
+                // first visit: count the result of a random game from here
+                random = xorshift(random);
+                diff = rollout(own, opp, random);
+                break;
+            }
+        }
+
+        // the player to move at the leaf is the one who made the move into its
+        // parent, each node's results are for the player who moved into it
+        int result = diff > 0 ? 2 : diff == 0 ? 1 : 0;
+        for (int i = length - 1; i >= 0; i--) {
+            result = 2 - result;
+            results.addAndGet(path[i], result);
+        }
+        return random;
+    }
+
+    /**
+     * returns the child of node with the best upper confidence bound
+     */
+    private int select(int node, int first) {
+        int n = childCount[node];
+        double logParent = Math.log(Math.max(1, visits.get(node)));
+        int best = first;
+        double bestScore = Double.NEGATIVE_INFINITY;
+        for (int c = first; c < first + n; c++) {
+            int v = visits.get(c);
+            if (v == 0) {
+                return c;
+            }
+            double score = results.get(c) / (2.0 * v) + EXPLORATION * Math.sqrt(logParent / v);
+            if (score > bestScore) {
+                bestScore = score;
+                best = c;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * adds the children of node (the position own, opp) and returns the
+     * first, or TERMINAL if the game is over, or EXPANDING if another
+     * thread got there first or NOT_EXPANDED if the arena is full
+     */
+    private int expand(int node, long own, long opp) {
+        if (!children.compareAndSet(node, NOT_EXPANDED, EXPANDING)) {
+            return children.get(node);
+        }
+        long moves = Bitboard.legalMoves(own, opp);
+        int n = Long.bitCount(moves);
+        if (n == 0) {
+            if (Bitboard.legalMoves(opp, own) == 0) {
+                children.set(node, TERMINAL);
+                return TERMINAL;
+            }
+            n = 1;
+        }
+        // once the arena is full, skip the atomic add
+        int first = used.get() + n > move.length ? -1 : used.getAndAdd(n);
+        if (first < 0 || first + n > move.length) {
+            if (first >= 0) {
+                used.getAndAdd(-n);
+            }
+            // the arena is full, it stays a leaf
+            children.set(node, NOT_EXPANDED);
+            return NOT_EXPANDED;
+        }
+        if (moves == 0) {
+            clearNode(first, PASS_MOVE);
+        }
+        for (int c = first; moves != 0; c++) {
+            clearNode(c, (byte) Long.numberOfTrailingZeros(moves));
+            moves &= moves - 1;
+        }
+        childCount[node] = (byte) n;
+        // publishes the children to the other threads
+        children.set(node, first);
+        return first;
+    }
+
+    private static long xorshift(long r) {
+        r ^= r << 13;
+        r ^= r >>> 7;
+        r ^= r << 17;
+        return r;
+    }
+
+    /**
+     * plays random moves to the end of the game and returns the final
+     * disc difference for the player owning own
+     */
+    static int rollout(long own, long opp, long random) {
+        boolean swapped = false;
+        int passes = 0;
+        while (passes < 2) {
+            long moves = Bitboard.legalMoves(own, opp);
+            if (moves == 0) {
+                passes++;
+            } else {
+                passes = 0;
+                random = xorshift(random);
+                int k = (int) (((random >>> 32) * Long.bitCount(moves)) >>> 32);
+                for (; k > 0; k--) {
+                    moves &= moves - 1;
+                }
+                int sq = Long.numberOfTrailingZeros(moves);
+                long flips = Bitboard.flips(own, opp, sq);
+                own |= flips | (1L << sq);
+                opp &= ~flips;
+            }
+            long tmp = own;
+            own = opp;
+            opp = tmp;
+            swapped = !swapped;
+        }
+        int diff = Long.bitCount(own) - Long.bitCount(opp);
+        return swapped ? -diff : diff;
+    }
+
+    /**
+     * the most visited line so far. the score is the expected result for
+     * the player to move, from -100 (certain loss) to 100 (certain win)
+     */
+    private SearchResult result() {
+        int[] line = new int[MAX_PATH];
+        int n = 0;
+        int node = 0;
+        int score = 0;
+        while (n < MAX_PATH) {
+            int first = children.get(node);
+            if (first <= 0) {
+                break;
+            }
+            int best = first;
+            for (int c = first + 1; c < first + childCount[node]; c++) {
+                if (visits.get(c) > visits.get(best)) {
+                    best = c;
+                }
+            }
+            int v = visits.get(best);
+            if (v == 0) {
+                break;
+            }
+            if (n == 0) {
+                score = (int) Math.round(100 * results.get(best) / (double) v - 100);
+            }
+            line[n++] = move[best] == PASS_MOVE ? Position.PASS : move[best];
+            node = best;
+        }
+        int bestMove = n > 0 ? line[0] : firstMove();
+        long count = Math.min(playouts.get(), maxPlayouts > 0 ? maxPlayouts : Long.MAX_VALUE);
+        return new SearchResult(bestMove, score, n, Arrays.copyOf(line, n), count,
+                System.currentTimeMillis() - startMillis);
+    }
+
+    /**
+     * a legal move for the root, for when no playout has finished
+     */
+    private int firstMove() {
+        long moves = Bitboard.legalMoves(rootOwn, rootOpp);
+        return moves == 0 ? Position.PASS : Long.numberOfTrailingZeros(moves);
+    }
+}
@@ -0,0 +1,362 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * append-only journal of a game, so a game in progress survives the
+ * program being closed or crashing without rewriting a file per move
+ *
+ * a journal is two files next to each other: NAME.dat, a snapshot of the
+ * game, and NAME.log, the moves made since that snapshot. every committed move, skip, undo and redo adds 1 or 2 bytes
+ * to a buffer, and the buffer is appended to the log in batches. after
+ * enough records the game is compacted: a new snapshot replaces the old
+ * one (written to a temporary file and renamed, so there is always one
+ * complete snapshot) and the log starts again empty.
+ *
+ * snapshot layout (big endian):
+ * - int magic, long generation, the game in the GameCodec format
+ *
+ * log layout (big endian):
+ * - int magic, long generation of the snapshot the log follows
+ * - batches: short number of bytes, the records, int CRC32 of both
+ * - a record is one byte (PASS, UNDO, REDO) or MOVE followed by the square
+ *
+ * every snapshot gets the next generation number. on open, the snapshot
+ * is loaded and the batches are replayed up to the first incomplete or
+ * corrupt one (the tail of a write cut off by a crash), which is cut off
+ * the file. a log left from before the last snapshot has an older
+ * generation and is ignored, even if both snapshots hold the same game.
+ */
+public class MoveJournal implements Closeable {
+
+    private static final int MAGIC = 0x4f4a524e; // "OJRN"
+    private static final int SNAPSHOT_MAGIC = 0x4f4a534e; // "OJSN"
+    private static final int HEADER_BYTES = 12;
+    private static final byte MOVE = 1;
+    private static final byte PASS = 2;
+    private static final byte UNDO = 3;
+    private static final byte REDO = 4;
+
+    public static final int DEFAULT_BATCH = 16;
+    public static final int DEFAULT_SNAPSHOT_INTERVAL = 256;
+
+    private final Othello game;
+    private final Path snapshotPath;
+    private final Path logPath;
+    private final FileChannel channel;
+    private final int batchRecords;
+    private final int snapshotInterval;
+
+    private final ByteBuffer records;
+    private int buffered; // records waiting in the buffer
+    private int sinceSnapshot; // records in the log and buffer
+    private long generation; // of the current snapshot, 0 before the first
+    private IOException error; // first failure of a batched write
+
+    private MoveJournal(Othello game, Path path, FileChannel channel,
+            int batchRecords, int snapshotInterval) {
+        this.game = game;
+        this.snapshotPath = sibling(path, ".dat");
+        this.logPath = sibling(path, ".log");
+        this.channel = channel;
+        this.batchRecords = batchRecords;
+        this.snapshotInterval = snapshotInterval;
+        this.records = ByteBuffer.allocate(2 + 2 * batchRecords + 4);
+        records.position(2);
+    }
+
+    public static MoveJournal open(Path path, Othello game) throws IOException {
+        return open(path, game, DEFAULT_BATCH, DEFAULT_SNAPSHOT_INTERVAL);
+    }
+
+    /**
+     * opens the journal at path (without the .dat/.log extension) and
+     * attaches it to game. if the journal exists, game is replaced with
+     * the game it holds, otherwise a new journal is started from game.
+     *
+     * batchRecords is the number of records buffered before they are
+     * written, snapshotInterval the number after which the game is compacted
+     *
+     * throws IOException if the files cannot be read or written, or the
+     * snapshot is corrupt
+     */
+    public static MoveJournal open(Path path, Othello game, int batchRecords,
+            int snapshotInterval) throws IOException {
+        if (batchRecords < 1 || batchRecords > Short.MAX_VALUE / 2) {
+            throw new IllegalArgumentException("batch size out of range: " + batchRecords);
+        }
+        Path snapshot = sibling(path, ".dat");
+        long snapshotGeneration = 0;
+        boolean recovered = Files.exists(snapshot);
+        if (recovered) {
+            ByteBuffer buf = ByteBuffer.wrap(Files.readAllBytes(snapshot));
+            if (buf.remaining() < HEADER_BYTES || buf.getInt() != SNAPSHOT_MAGIC) {
+                throw new IOException("not a journal snapshot: " + snapshot);
+            }
+            snapshotGeneration = buf.getLong();
+            GameCodec.decode(buf, game);
+        }
+
+        FileChannel channel = FileChannel.open(sibling(path, ".log"),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        MoveJournal journal = new MoveJournal(game, path, channel, batchRecords, snapshotInterval);
+        journal.generation = snapshotGeneration;
+        try {
+            if (recovered && journal.replay()) {
+                if (journal.sinceSnapshot >= snapshotInterval && !game.canRedo()) {
+                    journal.compact();
+                }
+            } else {
+                journal.compact();
+            }
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        game.setJournal(journal);
+        return journal;
+    }
+
+    /**
+     * plays the batches in the log onto the game and positions the channel
+     * after the last good one. returns false if the log does not follow
+     * the snapshot (and should be started again)
+     */
+    private boolean replay() throws IOException {
+        long size = channel.size();
+        if (size < HEADER_BYTES) {
+            return false;
+        }
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        readFully(header, 0);
+        if (header.getInt(0) != MAGIC || header.getLong(4) != generation) {
+            return false;
+        }
+
+        long offset = HEADER_BYTES;
+        ByteBuffer length = ByteBuffer.allocate(2);
+        CRC32 crc = new CRC32();
+        while (offset + 2 <= size) {
+            length.clear();
+            readFully(length, offset);
+            int n = length.getShort(0);
+            if (n < 0 || offset + 2 + n + 4 > size) {
+                break;
+            }
+            ByteBuffer batch = ByteBuffer.allocate(2 + n + 4);
+            readFully(batch, offset);
+            crc.reset();
+            crc.update(batch.array(), 0, 2 + n);
+            if ((int) crc.getValue() != batch.getInt(2 + n) || !apply(batch, n)) {
+                break;
+            }
+            offset += 2 + n + 4;
+        }
+        // drop whatever a crash left after the last complete batch
+        if (offset < size) {
+            channel.truncate(offset);
+        }
+        channel.position(offset);
+        return true;
+    }
+
+    /**
+     * plays the n bytes of records after the length in batch,
+     * returns false if one of them cannot be played
+     */
+    private boolean apply(ByteBuffer batch, int n) {
+        batch.position(2);
+        batch.limit(2 + n);
+        while (batch.hasRemaining()) {
+            byte op = batch.get();
+            boolean ok;
+            if (op == MOVE && batch.hasRemaining()) {
+                // up to 255 on a 16x16 board
+                int sq = batch.get() & 0xff;
+                ok = game.makeMove(sq);
+            } else if (op == PASS) {
+                game.skip();
+                ok = true;
+            } else if (op == UNDO) {
+                ok = game.undoMove();
+            } else if (op == REDO) {
+                ok = game.redoMove();
+            } else {
+                ok = false;
+            }
+            if (!ok) {
+                return false;
+            }
+            sinceSnapshot++;
+        }
+        return true;
+    }
+
+    void recordMove(int square) {
+        add(MOVE, square);
+    }
+
+    void recordPass() {
+        add(PASS, 0);
+    }
+
+    void recordUndo() {
+        add(UNDO, 0);
+    }
+
+    void recordRedo() {
+        add(REDO, 0);
+    }
+
+    /**
+     * the board was replaced (new game, setBoard or load),
+     * so the log cannot describe it and a snapshot is taken now
+     */
+    void recordReset() {
+        try {
+            compact();
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    private void add(byte op, int square) {
+        if (error != null) {
+            // the log is already missing records, adding more would not help
+            return;
+        }
+        records.put(op);
+        if (op == MOVE) {
+            records.put((byte) square);
+        }
+        buffered++;
+        sinceSnapshot++;
+        if (buffered >= batchRecords) {
+            try {
+                flush();
+            } catch (IOException e) {
+                fail(e);
+            }
+        }
+    }
+
+    private void fail(IOException e) {
+        if (error == null) {
+            error = e;
+        }
+    }
+
+    /**
+     * writes the buffered records to disk (or a new snapshot, if one is due)
+     *
+     * throws IOException if this or an earlier batched write failed
+     */
+    public void flush() throws IOException {
+        if (error != null) {
+            throw error;
+        }
+        // the snapshot cannot hold undone moves, so wait until nothing is left to redo
+        if (sinceSnapshot >= snapshotInterval && !game.canRedo()) {
+            compact();
+            return;
+        }
+        if (buffered == 0) {
+            return;
+        }
+        int n = records.position() - 2;
+        records.putShort(0, (short) n);
+        CRC32 crc = new CRC32();
+        crc.update(records.array(), 0, 2 + n);
+        records.putInt((int) crc.getValue());
+        records.flip();
+        while (records.hasRemaining()) {
+            channel.write(records);
+        }
+        channel.force(false);
+        clearBuffer();
+    }
+
+    /**
+     * replaces the snapshot with the current game and empties the log
+     */
+    private void compact() throws IOException {
+        long next = generation + 1;
+        ByteBuffer[] snapshot = {ByteBuffer.allocate(HEADER_BYTES), GameCodec.encode(game, false)};
+        snapshot[0].putInt(SNAPSHOT_MAGIC);
+        snapshot[0].putLong(next);
+        snapshot[0].flip();
+        Path tmp = sibling(snapshotPath, ".tmp");
+        try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (snapshot[1].hasRemaining()) {
+                out.write(snapshot);
+            }
+            out.force(false);
+        }
+        Files.move(tmp, snapshotPath, StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        generation = next;
+
+        // a crash before this point leaves an old log, whose generation
+        // is older than the new snapshot's
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        header.putInt(MAGIC);
+        header.putLong(generation);
+        header.flip();
+        channel.truncate(0);
+        channel.position(0);
+        while (header.hasRemaining()) {
+            channel.write(header);
+        }
+        channel.force(false);
+        clearBuffer();
+        sinceSnapshot = 0;
+    }
+
+    private void clearBuffer() {
+        records.clear();
+        records.position(2);
+        buffered = 0;
+    }
+
+    private void readFully(ByteBuffer buf, long offset) throws IOException {
+        while (buf.hasRemaining()) {
+            int n = channel.read(buf, offset + buf.position());
+            if (n < 0) {
+                throw new IOException("journal is truncated: " + logPath);
+            }
+        }
+    }
+
+    /**
+     * returns the first error from a batched write, or null if there was none
+     */
+    public IOException getError() {
+        return error;
+    }
+
+    /**
+     * flushes the journal and detaches it from the game
+     */
+    public void close() throws IOException {
+        game.setJournal(null);
+        try {
+            flush();
+        } finally {
+            channel.close();
+        }
+    }
+
+    private static Path sibling(Path path, String extension) {
+        Path name = Paths.get(path.getFileName() + extension);
+        Path parent = path.getParent();
+        return parent == null ? name : parent.resolve(name);
+    }
+}
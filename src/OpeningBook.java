@@ -0,0 +1,310 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * opening book: known good moves (and their scores) for early positions
+ *
+ * the book is a binary file of fixed-size records sorted by key, read
+ * through a memory mapped buffer, so opening it does not load anything
+ * onto the heap and a lookup is a binary search over the file. positions
+ * are stored in their canonical form (see Symmetry), so one record
+ * covers all 8 rotations and reflections of a position.
+ *
+ * file layout (big endian):
+ * - int magic, int number of records
+ * - records sorted by key, then by score (best first):
+ *   long canonical hash, byte move (in canonical orientation),
+ *   byte unused, short score (for the player to move)
+ *
+ * build a book from the command line with
+ *
+ *   java OpeningBook out=FILE [plies=N] [depth=D]
+ *
+ * which scores every move of every line up to N plies deep with an
+ * AlphaBeta search to depth D
+ */
+public class OpeningBook {
+
+    private static final int MAGIC = 0x4f424b31; // "OBK1"
+    private static final int HEADER_BYTES = 8;
+    private static final int RECORD_BYTES = 12;
+
+    private final MappedByteBuffer buffer;
+    private final int size;
+
+    private OpeningBook(MappedByteBuffer buffer, int size) {
+        this.buffer = buffer;
+        this.size = size;
+    }
+
+    public static void main(String[] args) throws IOException {
+        String out = null;
+        int plies = 6;
+        int depth = 6;
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (eq < 0) {
+                throw new IllegalArgumentException("expected name=value: " + arg);
+            }
+            String name = arg.substring(0, eq);
+            String value = arg.substring(eq + 1);
+            if (name.equals("out")) {
+                out = value;
+            } else if (name.equals("plies")) {
+                plies = Integer.parseInt(value);
+            } else if (name.equals("depth")) {
+                depth = Integer.parseInt(value);
+            } else {
+                throw new IllegalArgumentException("unknown option: " + name);
+            }
+        }
+        if (out == null) {
+            throw new IllegalArgumentException("out=FILE is required");
+        }
+
+        long start = System.currentTimeMillis();
+        build(Paths.get(out), new AlphaBeta(depth, 0), plies);
+        OpeningBook book = open(Paths.get(out));
+        System.out.printf("%,d book moves in %.1f s%n", book.getSize(),
+                (System.currentTimeMillis() - start) / 1000.0);
+    }
+
+    /**
+     * maps a book file into memory
+     *
+     * throws IOException if the file cannot be read or is not a book
+     */
+    public static OpeningBook open(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long length = channel.size();
+            if (length < HEADER_BYTES || length > Integer.MAX_VALUE) {
+                throw new IOException("not an opening book: " + path);
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+            if (buffer.getInt(0) != MAGIC) {
+                throw new IOException("not an opening book: " + path);
+            }
+            int size = buffer.getInt(4);
+            if (size < 0 || HEADER_BYTES + (long) size * RECORD_BYTES != length) {
+                throw new IOException("opening book is truncated: " + path);
+            }
+            return new OpeningBook(buffer, size);
+        }
+    }
+
+    /**
+     * returns the book moves for the position, best first,
+     * or an empty list if the position is not in the book
+     */
+    public List<Entry> lookup(Position position) {
+        int t = Symmetry.canonicalTransform(position.getBlack(), position.getWhite());
+        long key = Zobrist.hash(Symmetry.apply(t, position.getBlack()),
+                Symmetry.apply(t, position.getWhite()), position.getCurrentPlayer());
+        // book moves are stored for the canonical board, turn them back
+        int back = Symmetry.inverse(t);
+
+        List<Entry> entries = new ArrayList<Entry>();
+        for (int i = firstRecord(key); i < size && keyAt(i) == key; i++) {
+            int offset = HEADER_BYTES + i * RECORD_BYTES;
+            int move = buffer.get(offset + 8);
+            int score = buffer.getShort(offset + 10);
+            entries.add(new Entry(Symmetry.square(back, move), score));
+        }
+        return entries;
+    }
+
+    public List<Entry> lookup(Othello game) {
+        return lookup(game.getPosition());
+    }
+
+    /**
+     * returns the index of the first record with the given key,
+     * or of the first record after it if there is none
+     */
+    private int firstRecord(long key) {
+        int lo = 0;
+        int hi = size;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (keyAt(mid) < key) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    private long keyAt(int i) {
+        return buffer.getLong(HEADER_BYTES + i * RECORD_BYTES);
+    }
+
+    /**
+     * returns the number of (position, move) records in the book
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * builds a book by playing every line from the start position up to
+     * the given number of plies and scoring each move with the engine
+     */
+    public static void build(Path path, Engine engine, int plies) throws IOException {
+        Writer writer = new Writer();
+        Set<Long> seen = new HashSet<Long>();
+        ArrayDeque<Position> queue = new ArrayDeque<Position>();
+        ArrayDeque<Integer> depths = new ArrayDeque<Integer>();
+        queue.add(Position.start());
+        depths.add(0);
+
+        while (!queue.isEmpty()) {
+            Position p = queue.poll();
+            int depth = depths.poll();
+            if (depth >= plies || !seen.add(Symmetry.canonicalHash(p))) {
+                continue;
+            }
+            long moves = p.legalMoves();
+            if (moves == 0) {
+                if (!p.isGameOver()) {
+                    queue.add(p.play(Position.PASS));
+                    depths.add(depth);
+                }
+                continue;
+            }
+            while (moves != 0) {
+                int sq = Long.numberOfTrailingZeros(moves);
+                moves &= moves - 1;
+                Position child = p.play(sq);
+                SearchResult r = engine.think(child);
+                writer.add(p, sq, -r.getScore());
+                queue.add(child);
+                depths.add(depth + 1);
+            }
+        }
+        writer.write(path);
+    }
+
+    /**
+     * a book move and its score for the player to move
+     */
+    public static class Entry {
+        private final int move;
+        private final int score;
+
+        public Entry(int move, int score) {
+            this.move = move;
+            this.score = score;
+        }
+
+        public int getMove() {
+            return move;
+        }
+
+        public int getScore() {
+            return score;
+        }
+
+        public String toString() {
+            return SearchResult.squareName(move) + " " + score;
+        }
+    }
+
+    /**
+     * collects book moves and writes them out as a sorted book file
+     */
+    public static class Writer {
+        private long[] keys = new long[1024];
+        private long[] values = new long[1024]; // (Short.MAX_VALUE - score) << 8 | move
+        private int size;
+
+        /**
+         * adds a move and its score (for the player to move) in position
+         */
+        public void add(Position position, int move, int score) {
+            if (move < 0) {
+                throw new IllegalArgumentException("book moves must be squares");
+            }
+            int t = Symmetry.canonicalTransform(position.getBlack(), position.getWhite());
+            long key = Zobrist.hash(Symmetry.apply(t, position.getBlack()),
+                    Symmetry.apply(t, position.getWhite()), position.getCurrentPlayer());
+            score = Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, score));
+
+            if (size == keys.length) {
+                keys = Arrays.copyOf(keys, size * 2);
+                values = Arrays.copyOf(values, size * 2);
+            }
+            keys[size] = key;
+            // sorting values ascending puts the best score first
+            values[size] = ((long) (Short.MAX_VALUE - score) << 8) | Symmetry.square(t, move);
+            size++;
+        }
+
+        /**
+         * writes the book, keeping only the best score when the same
+         * move was added more than once
+         */
+        public void write(Path path) throws IOException {
+            PairSort.sort(keys, values, 0, size - 1);
+
+            int n = 0;
+            for (int i = 0; i < size; i++) {
+                if (!contains(keys[i], values[i], n)) {
+                    keys[n] = keys[i];
+                    values[n] = values[i];
+                    n++;
+                }
+            }
+            size = n;
+
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                ByteBuffer buf = ByteBuffer.allocate(64 * 1024);
+                buf.putInt(MAGIC);
+                buf.putInt(n);
+                for (int i = 0; i < n; i++) {
+                    if (buf.remaining() < RECORD_BYTES) {
+                        flush(channel, buf);
+                    }
+                    buf.putLong(keys[i]);
+                    buf.put((byte) (values[i] & 0xff));
+                    buf.put((byte) 0);
+                    buf.putShort((short) (Short.MAX_VALUE - (values[i] >>> 8)));
+                }
+                flush(channel, buf);
+            }
+        }
+
+        /**
+         * true if one of the first n (sorted, deduplicated) records
+         * already has this key and move
+         */
+        private boolean contains(long key, long value, int n) {
+            for (int j = n - 1; j >= 0 && keys[j] == key; j--) {
+                if ((values[j] & 0xff) == (value & 0xff)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private static void flush(FileChannel channel, ByteBuffer buf) throws IOException {
+            buf.flip();
+            while (buf.hasRemaining()) {
+                channel.write(buf);
+            }
+            buf.clear();
+        }
+    }
+}
@@ -1,46 +1,124 @@
-import java.io.*;
+import java.io.IOException;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.*;
 
 public class Othello {
 
-    private int[][] board;
+    private int size = Bitboard.SIZE;
+    // the board if it is not 8x8, null on the 8x8 board, which uses
+    // the masks below and is the only one the engines can play
+    private Mailbox mailbox;
+
+    // one bit per square (see Bitboard), committed discs only
+    private long black;
+    private long white;
+    // squares holding a disc placed with tryCell but not played yet
+    private long pending;
     private int numTurns;
     private int p1score;
     private int p2score;
     private boolean player1; // p1 = black, p2 = white
     private boolean gameOver;
+    private int winner; // result of endGame, kept up to date as moves are played
     
+    // legal moves for each player in the current position
+    private long p1Moves;
+    private long p2Moves;
+    // discs each legal move would flip, filled in when first asked for
+    private byte[] flipCounts = new byte[Bitboard.SQUARES];
+    private boolean flipCountsValid;
+    private boolean flipCountsPlayer1;
 
-    private boolean[] possibleDir; // true if there is an opposite disc surrounding played position
-    private boolean[] possibleFlip; // true if there is a flip possible in that direction 
-    private static final int[] ROW_OFFSETS = {-1, -1, -1, 0, 0, 1, 1, 1};
-    private static final int[] COL_OFFSETS = {-1, 0, 1, -1, 1, -1, 0, 1};
-    private static final int ASCII_OFFSET = 48;
-    
     private LinkedList<Coordinate> moves;
     
+    // committed moves, oldest first. entries past historySize 
+    // are moves that were undone and can be redone
+    private int[] historySquares; // square played, Position.PASS for a skipped turn
+    private long[] historyFlips; // discs flipped by the move
+    private boolean[] historyPlayers; // true if player 1 made the move
+    private int historySize;
+    private int historyTop;
+    private static final int HISTORY_CAPACITY = 64;
+    
+    // position the history starts from (the start position unless setBoard
+    // or load replaced the board), and the turns played before it
+    private long baseBlack;
+    private long baseWhite;
+    private boolean basePlayer1;
+    private int baseTurns;
+    private byte[] baseCells; // instead of baseBlack and baseWhite on a Mailbox board
+    
+    private MoveJournal journal; // null if moves are not journaled
+    
     public Othello() {
+        this(Bitboard.SIZE);
+    }
+    
+    /**
+     * a game on a size x size board, any even size from 4 to 16
+     */
+    public Othello(int size) {
+        reset(size);
+    }
+    
+    /**
+     * starts a new game on a size x size board
+     */
+    public void reset(int size) {
+        setSize(size);
         reset();
     }
     
     /**
-     * reset (re-)sets the game state to start a new game.
+     * switches to a board of another size, the caller then sets up
+     * the discs and the history
+     */
+    private void setSize(int size) {
+        if (size == Bitboard.SIZE) {
+            mailbox = null;
+        } else if (mailbox == null || mailbox.getSize() != size) {
+            mailbox = new Mailbox(size); // checks the size
+            black = 0L;
+            white = 0L;
+            p1Moves = 0L;
+            p2Moves = 0L;
+        }
+        this.size = size;
+        if (flipCounts.length != size * size) {
+            flipCounts = new byte[size * size];
+        }
+        flipCountsValid = false;
+    }
+    
+    /**
+     * reset (re-)sets the game state to start a new game
+     * on a board of the same size.
      */
     public void reset() {
-        board = new int[8][8];
         numTurns = 0;
         player1 = true;
         gameOver = false;
-        possibleDir = new boolean[8];
-        possibleFlip = new boolean[8];
+        pending = 0L;
         moves = new LinkedList<Coordinate>();
+        historySquares = new int[HISTORY_CAPACITY];
+        historyFlips = new long[HISTORY_CAPACITY];
+        historyPlayers = new boolean[HISTORY_CAPACITY];
+        historySize = 0;
+        historyTop = 0;
         
         // place starting discs
-        board[3][3] = 1;
-        board[3][4] = 2;
-        board[4][3] = 2;
-        board[4][4] = 1;
+        if (mailbox != null) {
+            mailbox.reset();
+        } else {
+            black = Bitboard.bit(3, 3) | Bitboard.bit(4, 4);
+            white = Bitboard.bit(3, 4) | Bitboard.bit(4, 3);
+        }
+        rescan();
+        setBase();
+        if (journal != null) {
+            journal.recordReset();
+        }
     }   
     
     /******************************/
@@ -72,190 +150,159 @@ public class Othello {
         }
         
         Coordinate c = moves.getFirst();
-        int row = c.getRow();
-        int col = c.getCol();      
-
-        // figure out who's playing
-        int disc;
-        if (player1) {
-            disc = 1;
-        } else {
-            disc = 2;
-        }
+        int square = c.getRow() * size + c.getCol();
          
         if (gameOver) {
             moves.clear();
+            pending = 0L;
             return 3; 
             
         // if position picked will result in flip, then flip 
-        } else if (possibleMove(row, col, disc)) {
-            for (int i = 0; i < possibleDir.length; i++) {
-                if (possibleDir[i]) {                    
-                    int numFlips = canFlip(row, col, disc, i);
-                    
-                    if (numFlips != 0) {
-                        possibleFlip[i] = true;
-                        flip(row, col, disc, i, numFlips);                        
-                    } else {
-                        possibleFlip[i] = false;
-                    }
-                }
-            }
-            numTurns++;
-            player1 = !player1;
+        } else if (makeMove(square)) {
             // clear list of moves for next player
             moves.clear();
-            endGame();           
+            pending = 0L;
             return 0;
-        } else if (endGame() != 0) {
-            moves.clear();
-            return 3;
         } else {
-            endGame();
             return 2;
         }
     }
                 
     /**
      * check if a move will cause any update to the game state
-     * (i.e. if it is a valid move)
+     * (i.e. if it is a valid move for the current player)
      * 
      * returns false if no flips are possible, else true 
      */
-    private boolean possibleMove(int row, int col, int disc) {        
-        if (!immediateGrid(row, col, disc)) {
-            return false; 
-        } else {
-            for (int i = 0; i < possibleDir.length; i++) {
-                if (possibleDir[i]) {                    
-                    int numFlips = canFlip(row, col, disc, i);                    
-                    if (numFlips != 0) {
-                        possibleFlip[i] = true;                     
-                    } else {
-                        possibleFlip[i] = false;
-                    }
-                }
-            }
+    private boolean possibleMove(int square) {
+        if (square < 0 || square >= size * size) {
+            return false;
         }
-        
-        for (int i = 0; i < possibleFlip.length; i++) {
-            if (possibleFlip[i]) {
-                return true;
-            }
-        }                
-        return false;       
-    }
-    
-    /** checks the grid surrounding the position played
-     *  return true if there is at least one grid with
-     *  opposite disc color, else return false 
-     *  
-     *  updates possibleDir array
-     */
-    private boolean immediateGrid(int row, int col, int disc) {
-        int gridNum = -1;
-                       
-        for (int i = row - 1; i <= row + 1; i++) {
-            for (int j = col - 1; j <= col + 1; j++) {              
-                if (i != row || j != col) {
-                    gridNum++;
-                    if (i >= 0 && j >= 0 && i < board.length && j < board[i].length) {
-                        if (board[i][j] != 0 && board[i][j] != disc) {                           
-                            possibleDir[gridNum] = true;
-                        }
-                    }
-                }
-            }
+        if (mailbox != null) {
+            // the flip counts are worked out once per position, so asking
+            // about every square (as the board's move hints do) is cheap
+            return getFlipCount(square) > 0;
         }
-        
-        for (int i = 0; i < possibleDir.length; i++) {
-            if (possibleDir[i]) {
-                return true;
-            }
-        }        
-        return false;
+        long legal = player1 ? p1Moves : p2Moves;
+        return (legal & (1L << square)) != 0;
     }
     
     /**
-     * checks if a flip can be made given *one specific direction*
+     * makeMove plays the current player's disc on square, flips the
+     * opponent's discs and records the move so it can be undone. 
+     * Discs placed with tryCell are not affected.
      * 
-     * returns number of discs that can be flipped, 0 if none 
+     * returns false (and does nothing) if the move is not valid
      */
-    private int canFlip(int row, int col, int disc, int idx) {
-        int numFlips = 0; 
-        int rowOffset = ROW_OFFSETS[idx];
-        int colOffset = COL_OFFSETS[idx];        
-        
-        int r = row + rowOffset;
-        int c = col + colOffset; 
-        while (r >= 0 && r < board.length && c >= 0 && c < board[r].length) {
-            if (board[r][c] != disc && board[r][c] != 0) {
-                numFlips++;
-            } else if (board[r][c] == 0) { 
-                return 0;
-            } else if (board[r][c] == disc) {
-                return numFlips;
-            }
-            r = r + rowOffset;
-            c = c + colOffset;
+    public boolean makeMove(int square) {
+        if (gameOver || !possibleMove(square)) {
+            return false;
         }
-        return 0;
+        if (mailbox != null) {
+            mailbox.play(square, player1 ? Mailbox.BLACK : Mailbox.WHITE);
+            push(square, 0L);
+        } else {
+            long own = player1 ? black : white;
+            long opp = player1 ? white : black;
+            long flips = Bitboard.flips(own, opp, square);
+            
+            push(square, flips);
+            applyFlips(player1, square, flips);
+        }
+        numTurns++;
+        player1 = !player1;
+        updateMoves();
+        if (journal != null) {
+            journal.recordMove(square);
+        }
+        return true;
     }
     
     /**
-     * flips the discs given *one specific direction*
+     * places a disc of the given player on square and flips 
+     * the discs in flips, keeping the scores up to date
      */
-    private void flip(int row, int col, int disc, int idx, int numFlips) {
-        int rowOffset = ROW_OFFSETS[idx];
-        int colOffset = COL_OFFSETS[idx];
-        
-        int r = row + rowOffset;
-        int c = col + colOffset;
-        while (r >= 0 && r < board.length && c >= 0 && c < board[r].length && numFlips != 0) {
-            if (board[r][c] != disc && numFlips != 0) {
-                board[r][c] = disc;
-                numFlips--;
-            }
-            r = r + rowOffset;
-            c = c + colOffset;
+    private void applyFlips(boolean p1, int square, long flips) {
+        int numFlips = Long.bitCount(flips);
+        long placed = flips | (1L << square);
+        if (p1) {
+            black |= placed;
+            white &= ~flips;
+            p1score += numFlips + 1;
+            p2score -= numFlips;
+        } else {
+            white |= placed;
+            black &= ~flips;
+            p2score += numFlips + 1;
+            p1score -= numFlips;
         }
     }
     
     /**
-     * checks if there are any possible moves for both players 
-     * returns true if yes, false if no more moves
+     * reverses applyFlips
      */
-    private boolean anyPossibleMoves() {
-        boolean any1s = false;
-        boolean any2s = false;
-        boolean full = true; 
-        
-        // if board only has 1 color disc or is full -> no more possible moves
-        for (int row = 0; row < board.length; row++) {
-            for (int col = 0; col < board[row].length; col++) {
-                if (board[row][col] == 0) {
-                    full = false;
-                } else if (board[row][col] == 1) {
-                    any1s = true;
-                } else if (board[row][col] == 2) {
-                    any2s = true;
-                }
-            }
+    private void revertFlips(boolean p1, int square, long flips) {
+        int numFlips = Long.bitCount(flips);
+        long placed = flips | (1L << square);
+        if (p1) {
+            black &= ~placed;
+            white |= flips;
+            p1score -= numFlips + 1;
+            p2score += numFlips;
+        } else {
+            white &= ~placed;
+            black |= flips;
+            p2score -= numFlips + 1;
+            p1score += numFlips;
         }
-        
-        if (!any1s || !any2s || full) {
-            return false;
+    }
+    
+    /**
+     * recounts the scores from scratch, only needed when the
+     * whole board is replaced (reset, load, setBoard)
+     */
+    private void rescan() {
+        if (mailbox == null) {
+            p1score = Long.bitCount(black);
+            p2score = Long.bitCount(white);
+        }
+        updateMoves();
+    }
+    
+    /**
+     * recomputes the legal moves of both players and 
+     * whether the game is over
+     */
+    private void updateMoves() {
+        boolean p1CanMove;
+        boolean p2CanMove;
+        if (mailbox != null) {
+            p1score = mailbox.getCount(Mailbox.BLACK);
+            p2score = mailbox.getCount(Mailbox.WHITE);
+            p1CanMove = mailbox.hasMove(Mailbox.BLACK);
+            p2CanMove = mailbox.hasMove(Mailbox.WHITE);
+        } else {
+            p1Moves = Bitboard.legalMoves(black, white);
+            p2Moves = Bitboard.legalMoves(white, black);
+            p1CanMove = p1Moves != 0;
+            p2CanMove = p2Moves != 0;
         }
+        flipCountsValid = false;
         
-        // iterate through every square and see if placing something there will be possible 
-        for (int row = 0; row < board.length; row++) {
-            for (int col = 0; col < board[row].length; col++) {
-                if (possibleMove(row, col, 1) || possibleMove(row, col, 2)) {
-                    return true;
-                }
+        // no more possible moves for either player 
+        if (!p1CanMove && !p2CanMove) {
+            gameOver = true; 
+            if (p1score > p2score) {
+                winner = 1;
+            } else if (p2score > p1score) {
+                winner = 2;
+            } else {
+                winner = 3;
             }
-        }        
-        return false; 
+        } else {
+            gameOver = false;
+            winner = 0;
+        }
     }
 
     /**
@@ -268,32 +315,7 @@ public class Othello {
      * 3 if the game ties
      */
     public int endGame() {
-        p1score = 0;
-        p2score = 0;
-        // no more possible moves for either player 
-        for (int row = 0; row < board.length; row++) {
-            for (int col = 0; col < board[row].length; col++) {
-                if (board[row][col] == 1) {  
-                    p1score++;
-                } else if (board[row][col] == 2) {
-                    p2score++;
-                }
-            }
-        }
-                
-        if (!anyPossibleMoves()) {
-            gameOver = true; 
-            if (p1score > p2score) {
-                return 1;
-            } else if (p2score > p1score) {
-                return 2;
-            } else {
-                return 3;
-            }
-        } else {
-            gameOver = false;
-            return 0;
-        }       
+        return winner;
     }
     
     /*************************/
@@ -307,39 +329,154 @@ public class Othello {
     }
     
     public void tryCell(int row, int col) {
-        if (board[row][col] == 0) {            
-            moves.add(new Coordinate(row, col));
+        if (row < 0 || row >= size || col < 0 || col >= size) {
+            return;
         }
-        
-        if (player1 && board[row][col] == 0) {
-            board[row][col] = 1;
-        } else if (!player1 && board[row][col] == 0) {
-            board[row][col] = 2;
+        if (mailbox != null) {
+            Coordinate c = new Coordinate(row, col);
+            if (mailbox.get(row * size + col) == Mailbox.EMPTY && !moves.contains(c)) {
+                moves.add(c);
+            }
+            return;
+        }
+        long m = Bitboard.bit(row, col);
+        if (((black | white | pending) & m) == 0) {            
+            moves.add(new Coordinate(row, col));
+            pending |= m;
         }
     }
     
+    /**
+     * removes the most recently placed disc that has not been
+     * played yet. If there is none, the last committed move is
+     * taken back instead.
+     */
     public void undo() {
         if (moves.isEmpty()) {
+            undoMove();
             return;
         }
         // most recent move at end of list
         Coordinate c = moves.removeLast();
         
-        // update array
-        int row = c.getRow();
-        int col = c.getCol();      
-        board[row][col] = 0;
+        // update board
+        if (mailbox == null) {
+            pending &= ~Bitboard.bit(c.getRow(), c.getCol());
+        }
+    }
+    
+    /**
+     * plays again the last move taken back with undo, if 
+     * no discs have been placed since
+     */
+    public void redo() {
+        if (moves.isEmpty()) {
+            redoMove();
+        }
     }
     
     /**
      * skips a player's turn
      */
     public void skip() {
-        while (!moves.isEmpty()) {
-            undo();
+        moves.clear();
+        pending = 0L;
+        push(Position.PASS, 0L);
+        player1 = !player1;
+        if (journal != null) {
+            journal.recordPass();
         }
+    }
+    
+    /**
+     * undoMove takes back the last committed move (or skipped turn),
+     * restoring the flipped discs and the player who made it
+     * 
+     * returns false if there is no move to take back
+     */
+    public boolean undoMove() {
+        if (historySize == 0) {
+            return false;
+        }
+        historySize--;
+        int square = historySquares[historySize];
+        player1 = historyPlayers[historySize];
+        if (square != Position.PASS) {
+            if (mailbox != null) {
+                mailbox.undo();
+            } else {
+                revertFlips(player1, square, historyFlips[historySize]);
+            }
+            numTurns--;
+            updateMoves();
+        }
+        if (journal != null) {
+            journal.recordUndo();
+        }
+        return true;
+    }
+    
+    /**
+     * redoMove plays again the last move taken back with undoMove
+     * 
+     * returns false if there is no move to redo
+     */
+    public boolean redoMove() {
+        if (historySize == historyTop) {
+            return false;
+        }
+        int square = historySquares[historySize];
+        if (square != Position.PASS) {
+            if (mailbox != null) {
+                mailbox.play(square, player1 ? Mailbox.BLACK : Mailbox.WHITE);
+            } else {
+                applyFlips(player1, square, historyFlips[historySize]);
+            }
+            numTurns++;
+            updateMoves();
+        }
+        historySize++;
         player1 = !player1;
-        
+        if (journal != null) {
+            journal.recordRedo();
+        }
+        return true;
+    }
+    
+    /**
+     * records a move by the current player, dropping any
+     * moves that could have been redone
+     */
+    private void push(int square, long flips) {
+        if (historySize == historySquares.length) {
+            historySquares = Arrays.copyOf(historySquares, historySize * 2);
+            historyFlips = Arrays.copyOf(historyFlips, historySize * 2);
+            historyPlayers = Arrays.copyOf(historyPlayers, historySize * 2);
+        }
+        historySquares[historySize] = square;
+        historyFlips[historySize] = flips;
+        historyPlayers[historySize] = player1;
+        historySize++;
+        historyTop = historySize;
+    }
+    
+    /**
+     * forgets all committed moves, used when the board is replaced
+     */
+    private void clearHistory() {
+        historySize = 0;
+        historyTop = 0;
+    }
+    
+    /**
+     * makes the current position the one the history starts from
+     */
+    private void setBase() {
+        baseBlack = black;
+        baseWhite = white;
+        baseCells = mailbox != null ? mailbox.toArray() : null;
+        basePlayer1 = player1;
+        baseTurns = numTurns;
     }
     
     /********************************/
@@ -347,93 +484,98 @@ public class Othello {
     /********************************/
     
     public boolean load() {
-        File file = Paths.get("game.txt").toFile();
-        BufferedReader br = null; 
-        
+        return load(Paths.get("game.dat"));
+    }
+    
+    /**
+     * loads a game saved with save (see GameCodec). returns false, and
+     * leaves the current game as it is, if the file cannot be read or
+     * is not a valid saved game.
+     */
+    public boolean load(Path path) {
         try {
-            br = new BufferedReader(new FileReader(file));
-            
-            // load game board 
-            for (int row = 0; row < board.length; row++) {
-                for (int col = 0; col < board[row].length; col++) {
-                    int val = br.read() - ASCII_OFFSET;
-                    board[row][col] = val;
-                } 
-                // read new line character
-                br.read();
-            }            
-            
-            // load moves
-            String coordinates = br.readLine();
-            if (!coordinates.isEmpty()) {
-                String[] coordinatesSplit = coordinates.split("/");
-                
-                for (int i = 0; i < coordinatesSplit.length; i += 2) {
-                    int row = Integer.parseInt(coordinatesSplit[i]);
-                    int col = Integer.parseInt(coordinatesSplit[i + 1]);
-                    Coordinate c = new Coordinate(row, col);
-                    moves.add(c);
-                }
-            }
-            
-            // load player
-            String player = br.readLine();
-            if (player.equals("true")) {
-                player1 = true;
-            } else if (player.equals("false")) {
-                player1 = false;
-            }          
-        } catch (FileNotFoundException e) {
-            return false;
+            GameCodec.read(path, this);
         } catch (IOException e) {
             return false;
-        } finally {
-            try {
-                br.close();
-            } catch (IOException e) {
-                return false;
-            }
-        }        
+        }
         return true;
     }
     
-    
     public boolean save() {
-        File file = Paths.get("game.txt").toFile();
-        BufferedWriter bw = null;
-        
+        return save(Paths.get("game.dat"));
+    }
+    
+    /**
+     * saves the board, the moves played (so they can still be undone
+     * after loading) and any discs placed but not played yet
+     */
+    public boolean save(Path path) {
         try {
-            FileWriter fw = new FileWriter(file);
-            bw = new BufferedWriter(fw);
-            
-            // save current game board
-            for (int row = 0; row < board.length; row++) {
-                for (int col = 0; col < board[row].length; col++) {
-                    bw.write("" + board[row][col]);
-                }
-                bw.newLine();
-            }
-            
-            // save moves (for undoing purposes)
-            for (Coordinate c : moves) {
-                bw.write(c.toString());
-                bw.write("/");
-            }
-            
-            bw.newLine();
-            
-            // save who current player is 
-            bw.write("" + player1);            
+            GameCodec.write(this, path);
         } catch (IOException e) {
             return false;
-        } finally {
-            try {
-                bw.close();
-            } catch (IOException e) {
-                return false;
+        }
+        return true;
+    }
+    
+    /**
+     * replaces the game with one starting from base, after baseTurns
+     * turns, by replaying history and then placing the pending discs.
+     * used by GameCodec, which has already checked that the moves are legal
+     */
+    void restore(Position base, int baseTurns, int[] history, int[] pendingSquares) {
+        setSize(Bitboard.SIZE);
+        black = base.getBlack();
+        white = base.getWhite();
+        replay(base.getCurrentPlayer(), baseTurns, history, pendingSquares);
+    }
+    
+    /**
+     * as above, for a board of another size. base holds the disc
+     * on each square (0 empty, 1 black, 2 white)
+     */
+    void restore(int size, byte[] base, boolean basePlayer1, int baseTurns, 
+            int[] history, int[] pendingSquares) {
+        if (size == Bitboard.SIZE) {
+            throw new IllegalArgumentException("an 8x8 game is restored from a Position");
+        }
+        setSize(size);
+        for (int sq = 0; sq < base.length; sq++) {
+            mailbox.set(sq, base[sq]);
+        }
+        replay(basePlayer1, baseTurns, history, pendingSquares);
+    }
+    
+    /**
+     * makes the board set up by restore the base position and plays 
+     * the history and the pending discs on it
+     */
+    private void replay(boolean basePlayer1, int baseTurns, int[] history, int[] pendingSquares) {
+        // the journal sees the loaded game as a whole, not move by move
+        MoveJournal j = journal;
+        journal = null;
+        player1 = basePlayer1;
+        numTurns = baseTurns;
+        pending = 0L;
+        moves.clear();
+        clearHistory();
+        rescan();
+        setBase();
+        
+        for (int sq : history) {
+            if (sq == Position.PASS) {
+                skip();
+            } else if (!makeMove(sq)) {
+                throw new IllegalArgumentException("illegal move " + SearchResult.squareName(sq));
             }
         }
-        return true;       
+        for (int sq : pendingSquares) {
+            tryCell(sq / size, sq % size);
+        }
+        journal = j;
+        if (journal != null) {
+            journal.recordReset();
+        }
     }
     
 
@@ -447,20 +589,30 @@ public class Othello {
      */
     public void printGameState() {
         System.out.println("\n\nTurn " + numTurns + ":\n");
-        for (int i = 0; i < board.length; i++) {
-            for (int j = 0; j < board[i].length; j++) {
-                System.out.print(board[i][j]);
-                if (j < 8) { 
+        for (int i = 0; i < size; i++) {
+            for (int j = 0; j < size; j++) {
+                System.out.print(getCell(i, j));
+                if (j < size) { 
                     System.out.print(" | "); 
                 }
             }
-            if (i < 8) {
+            if (i < size) {
                 System.out.println("\n-------------------------------"); 
             }
         }
     }
     
+    /**
+     * getBoard returns a copy of the game board as a 2D array,
+     * including discs that have been placed but not played yet
+     */
     public int[][] getBoard() {
+        int[][] board = new int[size][size];
+        for (int row = 0; row < size; row++) {
+            for (int col = 0; col < size; col++) {
+                board[row][col] = getCell(row, col);
+            }
+        }
         return board;
     }
     
@@ -491,16 +643,201 @@ public class Othello {
      *         2 = Player 2 = white
      */
     public int getCell(int row, int col) {
-        return board[row][col];
+        if (mailbox != null) {
+            int disc = mailbox.get(row * size + col);
+            if (disc == Mailbox.EMPTY && moves.contains(new Coordinate(row, col))) {
+                return player1 ? 1 : 2;
+            }
+            return disc;
+        }
+        long m = Bitboard.bit(row, col);
+        if ((black & m) != 0) {
+            return 1;
+        } else if ((white & m) != 0) {
+            return 2;
+        } else if ((pending & m) != 0) {
+            return player1 ? 1 : 2;
+        }
+        return 0;
     }
     
     
     /** 
-     * sets game board to a specific game state
+     * sets game board to a specific game state, the board 
+     * size is taken from the array
      * used for testing
      */
     public void setBoard(int[][] board) {
-        this.board = board;
+        setSize(board.length);
+        if (mailbox != null) {
+            for (int row = 0; row < size; row++) {
+                for (int col = 0; col < size; col++) {
+                    int disc = board[row][col];
+                    mailbox.set(row * size + col, disc == 1 || disc == 2 ? disc : Mailbox.EMPTY);
+                }
+            }
+        } else {
+            black = Bitboard.fromArray(board, 1);
+            white = Bitboard.fromArray(board, 2);
+        }
+        pending = 0L;
+        moves.clear();
+        clearHistory();
+        rescan();
+        setBase();
+        if (journal != null) {
+            journal.recordReset();
+        }
+    }
+    
+    /**
+     * journals every committed move, skip, undo and redo from now on,
+     * or stops journaling if journal is null (see MoveJournal.open)
+     */
+    void setJournal(MoveJournal journal) {
+        this.journal = journal;
+    }
+    
+    /**
+     * returns true if there is an undone move that redoMove can play again
+     */
+    public boolean canRedo() {
+        return historyTop > historySize;
+    }
+    
+    /**
+     * returns the position the move history starts from (8x8 only)
+     */
+    public Position getBasePosition() {
+        requireStandard();
+        return new Position(baseBlack, baseWhite, basePlayer1);
+    }
+    
+    /**
+     * returns the discs of the position the move history starts from,
+     * one per square, on a board that is not 8x8
+     */
+    byte[] getBaseCells() {
+        return baseCells.clone();
+    }
+    
+    /**
+     * returns the committed discs, one per square, on a board that is not 8x8
+     */
+    byte[] getCells() {
+        return mailbox.toArray();
+    }
+    
+    /**
+     * returns true if player 1 is to move in the base position
+     */
+    public boolean getBaseCurrentPlayer() {
+        return basePlayer1;
+    }
+    
+    /**
+     * returns the number of turns played before the base position
+     */
+    public int getBaseTurns() {
+        return baseTurns;
+    }
+    
+    /**
+     * returns the number of rows (and columns) of the board
+     */
+    public int getSize() {
+        return size;
+    }
+    
+    /**
+     * the methods from here to getP2Moves work with 64-bit masks, 
+     * so only on the 8x8 board
+     */
+    private void requireStandard() {
+        if (mailbox != null) {
+            throw new IllegalStateException("not available on a " + size + "x" + size + " board");
+        }
+    }
+    
+    /**
+     * returns an immutable snapshot of the committed game state
+     * (discs placed with tryCell but not played are not included)
+     */
+    public Position getPosition() {
+        requireStandard();
+        return new Position(black, white, player1);
+    }
+    
+    public long getBlack() {
+        requireStandard();
+        return this.black;
+    }
+    
+    public long getWhite() {
+        requireStandard();
+        return this.white;
+    }
+    
+    /**
+     * returns the mask of squares the player to move can play,
+     * kept up to date as moves are played
+     */
+    public long getLegalMoves() {
+        requireStandard();
+        return player1 ? p1Moves : p2Moves;
+    }
+    
+    /**
+     * returns true if the player to move can play square
+     * (row * getSize() + col), on a board of any size
+     */
+    public boolean isLegalMove(int square) {
+        return possibleMove(square);
+    }
+    
+    /**
+     * returns how many discs playing square would flip for the player
+     * to move, 0 if it is not a legal move. the counts for all legal moves
+     * are worked out on the first call after the position changes
+     */
+    public int getFlipCount(int square) {
+        if ((!flipCountsValid || flipCountsPlayer1 != player1) && mailbox != null) {
+            int own = player1 ? Mailbox.BLACK : Mailbox.WHITE;
+            for (int sq = 0; sq < flipCounts.length; sq++) {
+                flipCounts[sq] = (byte) mailbox.flipCount(sq, own);
+            }
+            flipCountsValid = true;
+            flipCountsPlayer1 = player1;
+        } else if (!flipCountsValid || flipCountsPlayer1 != player1) {
+            long own = player1 ? black : white;
+            long opp = player1 ? white : black;
+            long moves = getLegalMoves();
+            Arrays.fill(flipCounts, (byte) 0);
+            while (moves != 0) {
+                int sq = Long.numberOfTrailingZeros(moves);
+                moves &= moves - 1;
+                flipCounts[sq] = (byte) Long.bitCount(Bitboard.flips(own, opp, sq));
+            }
+            flipCountsValid = true;
+            flipCountsPlayer1 = player1;
+        }
+        return flipCounts[square];
+    }
+    
+    /**
+     * returns the mask of squares player 1 (black) can play
+     */
+    public long getP1Moves() {
+        requireStandard();
+        return this.p1Moves;
+    }
+    
+    /**
+     * returns the mask of squares player 2 (white) can play
+     */
+    public long getP2Moves() {
+        requireStandard();
+        return this.p2Moves;
     }
     
     public boolean getGameOver() {
@@ -518,4 +855,36 @@ public class Othello {
     public LinkedList<Coordinate> getMoves() {
         return this.moves;
     }
+    
+    /**
+     * returns the number of committed moves (including skipped
+     * turns) that can be taken back with undoMove
+     */
+    public int getHistoryLength() {
+        return this.historySize;
+    }
+    
+    /**
+     * returns the square played by the i-th committed move,
+     * Position.PASS if the turn was skipped
+     */
+    public int getHistorySquare(int i) {
+        return this.historySquares[i];
+    }
+    
+    /**
+     * returns the mask of discs flipped by the i-th committed move
+     * (8x8 only)
+     */
+    public long getHistoryFlips(int i) {
+        requireStandard();
+        return this.historyFlips[i];
+    }
+    
+    /**
+     * returns true if the i-th committed move was made by player 1
+     */
+    public boolean getHistoryPlayer(int i) {
+        return this.historyPlayers[i];
+    }
 }
@@ -0,0 +1,48 @@
+/**
+ * sorts two parallel long arrays together, by the first and then the
+ * second, without boxing them into objects
+ */
+final class PairSort {
+
+    private PairSort() {
+    }
+
+    /**
+     * sorts keys[lo..hi] and values[lo..hi] (inclusive) by (key, value)
+     */
+    static void sort(long[] keys, long[] values, int lo, int hi) {
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            long pk = keys[mid];
+            long pv = values[mid];
+            int i = lo;
+            int j = hi;
+            while (i <= j) {
+                while (keys[i] < pk || (keys[i] == pk && values[i] < pv)) {
+                    i++;
+                }
+                while (keys[j] > pk || (keys[j] == pk && values[j] > pv)) {
+                    j--;
+                }
+                if (i <= j) {
+                    long k = keys[i];
+                    keys[i] = keys[j];
+                    keys[j] = k;
+                    long v = values[i];
+                    values[i] = values[j];
+                    values[j] = v;
+                    i++;
+                    j--;
+                }
+            }
+            // recurse into the smaller half to bound the stack depth
+            if (j - lo < hi - i) {
+                sort(keys, values, lo, j);
+                lo = i;
+            } else {
+                sort(keys, values, i, hi);
+                hi = j;
+            }
+        }
+    }
+}
@@ -0,0 +1,156 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * computer player that runs several AlphaBeta searches at once (Lazy SMP)
+ *
+ * every thread searches the same position with its own move stacks but
+ * they all share one lock-free TranspositionTable, so each thread picks up
+ * the results the others have already found. half of the helper threads
+ * start one ply deeper than the main thread so the threads do not all
+ * walk the tree in the same order. the main search runs on the calling
+ * thread and its result is returned once it finishes; the helpers are
+ * stopped at that point. near the end of the game only the main thread
+ * runs the EndgameSolver, the helpers keep filling the shared table with
+ * the normal search in case the solver runs out of time.
+ */
+public class ParallelSearch implements Engine {
+
+    private final AlphaBeta[] searchers;
+    private final TranspositionTable table;
+    private final ExecutorService helpers;
+
+    /**
+     * @param threads number of search threads, including the calling thread
+     * @param maxDepth deepest iteration to search, in plies
+     * @param timeLimitMillis time budget per move, 0 for no limit
+     * @param tableMegabytes size of the shared transposition table
+     */
+    public ParallelSearch(int threads, int maxDepth, long timeLimitMillis, int tableMegabytes) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("need at least 1 thread");
+        }
+        table = new TranspositionTable(tableMegabytes);
+        searchers = new AlphaBeta[threads];
+        searchers[0] = new AlphaBeta(maxDepth, timeLimitMillis, table);
+        for (int i = 1; i < threads; i++) {
+            // helpers run until the main search stops them
+            searchers[i] = new AlphaBeta(maxDepth, 0, table);
+            searchers[i].setFirstDepth(1 + i % 2);
+            // the main thread alone runs the exact solver, helpers solving
+            // the same root each with their own table would only repeat it
+            searchers[i].setEndgameEmpties(0);
+        }
+        helpers = threads > 1 ? Executors.newFixedThreadPool(threads - 1, r -> {
+            Thread t = new Thread(r, "search-helper");
+            t.setDaemon(true);
+            return t;
+        }) : null;
+    }
+
+    public SearchResult think(Position position) {
+        clearStop();
+        return thinkUnlessStopped(position);
+    }
+
+    public void clearStop() {
+        for (AlphaBeta searcher : searchers) {
+            searcher.clearStop();
+        }
+    }
+
+    public SearchResult thinkUnlessStopped(Position position) {
+        table.newSearch();
+
+        List<Future<SearchResult>> running = new ArrayList<Future<SearchResult>>();
+        for (int i = 1; i < searchers.length; i++) {
+            final AlphaBeta helper = searchers[i];
+            running.add(helpers.submit(() -> helper.search(position)));
+        }
+
+        SearchResult result = searchers[0].search(position);
+
+        for (int i = 1; i < searchers.length; i++) {
+            searchers[i].stop();
+        }
+        for (Future<SearchResult> f : running) {
+            try {
+                f.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException e) {
+                throw new IllegalStateException("search thread failed", e.getCause());
+            }
+        }
+        // every thread has finished, so their node counts can be read
+        long nodes = 0;
+        for (AlphaBeta searcher : searchers) {
+            nodes += searcher.getNodes();
+        }
+        return new SearchResult(result.getBestMove(), result.getScore(), result.getDepth(),
+                result.getPv(), nodes, result.getTimeMillis());
+    }
+
+    public void stop() {
+        for (AlphaBeta searcher : searchers) {
+            searcher.stop();
+        }
+    }
+
+    /**
+     * progress is reported by the main search thread only
+     */
+    public void setListener(SearchListener listener) {
+        searchers[0].setListener(listener);
+    }
+
+    /**
+     * gives every search thread the same eval cache, null for none
+     */
+    public void setEvalCache(PositionCache cache) {
+        for (AlphaBeta searcher : searchers) {
+            searcher.setEvalCache(cache);
+        }
+    }
+
+    /**
+     * scores leaves with the pattern weights in every search thread
+     * (each keeps its own evaluator), null for the built-in evaluation
+     */
+    public void setWeights(PatternEvaluator.Weights weights) {
+        for (AlphaBeta searcher : searchers) {
+            searcher.setWeights(weights);
+        }
+    }
+
+    /**
+     * plays book moves without searching in every search thread,
+     * null for none
+     */
+    public void setBook(OpeningBook book) {
+        for (AlphaBeta searcher : searchers) {
+            searcher.setBook(book);
+        }
+    }
+
+    /**
+     * stops the helper threads, the engine cannot be used afterwards
+     */
+    public void shutdown() {
+        if (helpers != null) {
+            helpers.shutdownNow();
+        }
+    }
+
+    public int getThreads() {
+        return searchers.length;
+    }
+
+    public TranspositionTable getTable() {
+        return table;
+    }
+}
@@ -0,0 +1,359 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * evaluation from trained pattern weights, kept up to date move by move
+ *
+ * a pattern is a fixed group of squares: an edge with its two X squares,
+ * a 3x3 and a 2x5 corner block, the rows 2 to 4 squares in from an edge
+ * and the diagonals of length 4 to 8. each pattern is used in all its
+ * rotations and reflections (its instances), which share one weight for
+ * every way the squares can be filled (3^n for n squares). the score is
+ * the sum of those weights, plus mobility and potential mobility (empty
+ * squares next to the opponent's discs) times a weight each.
+ *
+ * every game phase (a range of disc counts) has its own weights, one
+ * short[] of FEATURES per phase, as fitted by PatternTrainer. scores are
+ * in SCALE units per disc of the expected final disc difference.
+ *
+ * the instances are indexed with black as 1 and white as 2 in base 3, and
+ * play and undo change only the instances that contain a changed square.
+ * for white to move the colours are swapped by table lookup, so the
+ * weights are always for the player to move and the score only depends
+ * on whose discs are whose, as an eval cache needs. an evaluator holds
+ * the state of one search, the Weights can be shared.
+ */
+public final class PatternEvaluator {
+
+    public static final int PHASES = 10;
+    public static final int SCALE = 16;
+
+    // the first instance of each pattern, as squares, the others are its symmetric versions
+    private static final int[][] PATTERNS = {
+        {0, 1, 2, 3, 4, 5, 6, 7, 9, 14},        // edge and X squares
+        {0, 1, 2, 8, 9, 10, 16, 17, 18},        // 3x3 corner
+        {0, 1, 2, 3, 4, 8, 9, 10, 11, 12},      // 2x5 corner
+        {8, 9, 10, 11, 12, 13, 14, 15},         // second row
+        {16, 17, 18, 19, 20, 21, 22, 23},       // third row
+        {24, 25, 26, 27, 28, 29, 30, 31},       // fourth row
+        {0, 9, 18, 27, 36, 45, 54, 63},         // diagonals
+        {1, 10, 19, 28, 37, 46, 55},
+        {2, 11, 20, 29, 38, 47},
+        {3, 12, 21, 30, 39},
+        {3, 10, 17, 24}
+    };
+    private static final int MAX_PATTERN = 10;
+
+    // per instance: the pattern it belongs to, its squares and where its weights start
+    static final int INSTANCES;
+    static final int[] INSTANCE_PATTERN;
+    static final int[][] INSTANCE_SQUARES;
+    private static final int[] INSTANCE_OFFSET;
+
+    // per pattern: where its weights start and how many it has
+    static final int[] PATTERN_OFFSET = new int[PATTERNS.length];
+    static final int[] PATTERN_SIZE = new int[PATTERNS.length];
+
+    // the linear weights come after the patterns
+    static final int MOBILITY;
+    static final int POTENTIAL;
+    public static final int FEATURES;
+
+    // per square: the instances it is in (from SQUARE_START[sq] to
+    // SQUARE_START[sq + 1]) and its power of 3 in each
+    private static final int[] SQUARE_START = new int[Bitboard.SQUARES + 1];
+    private static final int[] SQUARE_INSTANCE;
+    private static final int[] SQUARE_POWER;
+
+    // every configuration of up to MAX_PATTERN squares with the colours swapped
+    private static final char[] SWAP;
+
+    static {
+        List<int[]> squares = new ArrayList<int[]>();
+        List<Integer> owner = new ArrayList<Integer>();
+        int offset = 0;
+        for (int p = 0; p < PATTERNS.length; p++) {
+            PATTERN_OFFSET[p] = offset;
+            PATTERN_SIZE[p] = pow3(PATTERNS[p].length);
+            offset += PATTERN_SIZE[p];
+            Set<Long> seen = new HashSet<Long>();
+            for (int t = 0; t < Symmetry.COUNT; t++) {
+                int[] s = new int[PATTERNS[p].length];
+                long mask = 0;
+                for (int k = 0; k < s.length; k++) {
+                    s[k] = Symmetry.square(t, PATTERNS[p][k]);
+                    mask |= 1L << s[k];
+                }
+                // a symmetry of the pattern itself gives the same squares again
+                if (seen.add(mask)) {
+                    squares.add(s);
+                    owner.add(p);
+                }
+            }
+        }
+        MOBILITY = offset;
+        POTENTIAL = offset + 1;
+        FEATURES = offset + 2;
+
+        INSTANCES = squares.size();
+        INSTANCE_SQUARES = squares.toArray(new int[0][]);
+        INSTANCE_PATTERN = new int[INSTANCES];
+        INSTANCE_OFFSET = new int[INSTANCES];
+        for (int i = 0; i < INSTANCES; i++) {
+            INSTANCE_PATTERN[i] = owner.get(i);
+            INSTANCE_OFFSET[i] = PATTERN_OFFSET[owner.get(i)];
+        }
+
+        int total = 0;
+        for (int[] s : INSTANCE_SQUARES) {
+            total += s.length;
+        }
+        SQUARE_INSTANCE = new int[total];
+        SQUARE_POWER = new int[total];
+        int n = 0;
+        for (int sq = 0; sq < Bitboard.SQUARES; sq++) {
+            SQUARE_START[sq] = n;
+            for (int i = 0; i < INSTANCES; i++) {
+                for (int k = 0; k < INSTANCE_SQUARES[i].length; k++) {
+                    if (INSTANCE_SQUARES[i][k] == sq) {
+                        SQUARE_INSTANCE[n] = i;
+                        SQUARE_POWER[n] = pow3(k);
+                        n++;
+                    }
+                }
+            }
+        }
+        SQUARE_START[Bitboard.SQUARES] = n;
+
+        SWAP = new char[pow3(MAX_PATTERN)];
+        for (int c = 0; c < SWAP.length; c++) {
+            int swapped = 0;
+            for (int k = 0, rest = c, p = 1; k < MAX_PATTERN; k++, rest /= 3, p *= 3) {
+                int d = rest % 3;
+                swapped += (d == 0 ? 0 : 3 - d) * p;
+            }
+            SWAP[c] = (char) swapped;
+        }
+    }
+
+    static int pow3(int n) {
+        int p = 1;
+        for (int i = 0; i < n; i++) {
+            p *= 3;
+        }
+        return p;
+    }
+
+    private final short[][] weights;
+    private final int[] index = new int[INSTANCES];
+
+    public PatternEvaluator(Weights weights) {
+        this.weights = weights.table;
+    }
+
+    /**
+     * returns the phase of a position with the given number of discs
+     */
+    public static int phase(int discs) {
+        return (discs - 4) * PHASES / (Bitboard.SQUARES - 3);
+    }
+
+    /**
+     * sets up the instances for a position, from scratch
+     */
+    public void setPosition(long black, long white) {
+        Arrays.fill(index, 0);
+        for (int sq = 0; sq < Bitboard.SQUARES; sq++) {
+            int disc = (black >>> sq & 1) != 0 ? 1 : (white >>> sq & 1) != 0 ? 2 : 0;
+            if (disc != 0) {
+                add(sq, disc);
+            }
+        }
+    }
+
+    private void add(int sq, int delta) {
+        for (int j = SQUARE_START[sq], end = SQUARE_START[sq + 1]; j < end; j++) {
+            index[SQUARE_INSTANCE[j]] += delta * SQUARE_POWER[j];
+        }
+    }
+
+    /**
+     * updates the instances for a move, black is true if black made it
+     */
+    public void play(int square, long flips, boolean black) {
+        add(square, black ? 1 : 2);
+        // a flipped disc goes from 2 to 1 for black, from 1 to 2 for white
+        int delta = black ? -1 : 1;
+        while (flips != 0) {
+            add(Long.numberOfTrailingZeros(flips), delta);
+            flips &= flips - 1;
+        }
+    }
+
+    /**
+     * takes back a move given to play
+     */
+    public void undo(int square, long flips, boolean black) {
+        add(square, black ? -1 : -2);
+        int delta = black ? 1 : -1;
+        while (flips != 0) {
+            add(Long.numberOfTrailingZeros(flips), delta);
+            flips &= flips - 1;
+        }
+    }
+
+    /**
+     * returns the score for the player owning own (black if black is
+     * true), which must be the position set up by setPosition and play
+     */
+    public int evaluate(long own, long opp, boolean black) {
+        return evaluate(own, opp, black, Bitboard.legalMoves(own, opp));
+    }
+
+    /**
+     * as above, given the legal moves of own, which a search has already
+     */
+    public int evaluate(long own, long opp, boolean black, long moves) {
+        short[] w = weights[phase(Long.bitCount(own | opp))];
+        int score = 0;
+        if (black) {
+            for (int i = 0; i < INSTANCES; i++) {
+                score += w[INSTANCE_OFFSET[i] + index[i]];
+            }
+        } else {
+            for (int i = 0; i < INSTANCES; i++) {
+                score += w[INSTANCE_OFFSET[i] + SWAP[index[i]]];
+            }
+        }
+        int mobility = Long.bitCount(moves) - Long.bitCount(Bitboard.legalMoves(opp, own));
+        score += w[MOBILITY] * mobility + w[POTENTIAL] * potential(own, opp);
+        // well short of a won game's score
+        return Math.max(-AlphaBeta.WIN / 2, Math.min(AlphaBeta.WIN / 2, score));
+    }
+
+    /**
+     * puts the weight each instance uses for the position into features,
+     * for the player owning own, worked out from scratch
+     */
+    static void features(long own, long opp, int[] features) {
+        for (int i = 0; i < INSTANCES; i++) {
+            int[] s = INSTANCE_SQUARES[i];
+            int c = 0;
+            for (int k = s.length - 1; k >= 0; k--) {
+                c = 3 * c + ((own >>> s[k] & 1) != 0 ? 1 : (opp >>> s[k] & 1) != 0 ? 2 : 0);
+            }
+            features[i] = INSTANCE_OFFSET[i] + c;
+        }
+    }
+
+    /**
+     * returns the difference in the number of legal moves
+     */
+    static int mobility(long own, long opp) {
+        return Long.bitCount(Bitboard.legalMoves(own, opp))
+                - Long.bitCount(Bitboard.legalMoves(opp, own));
+    }
+
+    /**
+     * returns the difference in the number of empty squares next to
+     * the other player's discs
+     */
+    static int potential(long own, long opp) {
+        long empty = ~(own | opp);
+        return Long.bitCount(neighbours(opp) & empty) - Long.bitCount(neighbours(own) & empty);
+    }
+
+    private static long neighbours(long b) {
+        // columns 0 and 7 must not wrap into the next row
+        long side = ((b << 1) & 0xfefefefefefefefeL) | ((b >>> 1) & 0x7f7f7f7f7f7f7f7fL);
+        long row = b | side;
+        return side | (row << 8) | (row >>> 8);
+    }
+
+    /**
+     * the weights for every phase, shared by any number of evaluators
+     *
+     * file layout (big endian): int magic, int PHASES, int FEATURES, then
+     * the FEATURES shorts of each phase. the file must have been written
+     * for the same patterns.
+     */
+    public static final class Weights {
+
+        private static final int MAGIC = 0x4f505731; // "OPW1"
+
+        final short[][] table;
+
+        /**
+         * @param table FEATURES weights for each of the PHASES phases
+         */
+        public Weights(short[][] table) {
+            if (table.length != PHASES) {
+                throw new IllegalArgumentException("need weights for " + PHASES + " phases");
+            }
+            for (short[] w : table) {
+                if (w.length != FEATURES) {
+                    throw new IllegalArgumentException("need " + FEATURES + " weights per phase");
+                }
+            }
+            this.table = table;
+        }
+
+        /**
+         * reads weights written by save
+         *
+         * throws IOException if the file cannot be read or is not a weight file
+         */
+        public static Weights load(Path path) throws IOException {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                    Files.newInputStream(path), 1 << 16))) {
+                if (in.readInt() != MAGIC) {
+                    throw new IOException("not a pattern weight file: " + path);
+                }
+                if (in.readInt() != PHASES || in.readInt() != FEATURES) {
+                    throw new IOException("pattern weights are for other patterns: " + path);
+                }
+                short[][] table = new short[PHASES][FEATURES];
+                for (short[] w : table) {
+                    for (int i = 0; i < FEATURES; i++) {
+                        w[i] = in.readShort();
+                    }
+                }
+                return new Weights(table);
+            } catch (EOFException e) {
+                throw new IOException("pattern weight file is truncated: " + path);
+            }
+        }
+
+        public void save(Path path) throws IOException {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                    Files.newOutputStream(path), 1 << 16))) {
+                out.writeInt(MAGIC);
+                out.writeInt(PHASES);
+                out.writeInt(FEATURES);
+                for (short[] w : table) {
+                    for (short x : w) {
+                        out.writeShort(x);
+                    }
+                }
+            }
+        }
+
+        /**
+         * returns weight i of phase
+         */
+        public int get(int phase, int i) {
+            return table[phase][i];
+        }
+    }
+}
@@ -0,0 +1,342 @@
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * fits the weights of a PatternEvaluator to the results of games, run
+ * from the command line:
+ *
+ *   java PatternTrainer out=FILE [archive=DIR] [selfplay=GAMES] [depth=D]
+ *                      [weights=FILE] [epochs=N] [rate=R]
+ *
+ * the games are every finished 8x8 game in the GameArchive in DIR (for
+ * example databases loaded with GameImporter) and/or GAMES games the
+ * program plays against itself: AlphaBeta at depth D, with the weights
+ * from weights=FILE if given, so a set of weights can be improved in
+ * rounds. self-play games open with random moves and play a random move
+ * now and then, so they do not all follow the same line.
+ *
+ * every position with a move to play is a sample, and the target is the
+ * final disc difference of its game for the player to move. the weights
+ * of each phase are fitted by stochastic gradient descent on the squared
+ * error. after each epoch the weights of configurations that are the same
+ * up to a symmetry of their pattern are averaged, so the evaluation is
+ * the same for all 8 versions of a position. one game in 10 is held back
+ * and the mean error on those games is printed after each epoch.
+ */
+public class PatternTrainer {
+
+    private static final int TEST_EVERY = 10;
+    private static final int OPENING_PLIES = 8;
+    private static final double RANDOM_MOVES = 0.05;
+    private static final double LINEAR_RATE = 0.01; // of rate, as mobility counts are large
+
+    // positions from the player to move's point of view, and the final disc difference
+    private long[] own = new long[1 << 16];
+    private long[] opp = new long[own.length];
+    private byte[] result = new byte[own.length];
+    private boolean[] test = new boolean[own.length];
+    private int size;
+    private int games;
+
+    private final float[][] weights = new float[PatternEvaluator.PHASES][PatternEvaluator.FEATURES];
+
+    public static void main(String[] args) throws IOException {
+        String out = null;
+        String archive = null;
+        String start = null;
+        int selfPlay = 0;
+        int depth = 2;
+        int epochs = 10;
+        double rate = 0.002;
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (eq < 0) {
+                throw new IllegalArgumentException("expected name=value: " + arg);
+            }
+            String name = arg.substring(0, eq);
+            String value = arg.substring(eq + 1);
+            if (name.equals("out")) {
+                out = value;
+            } else if (name.equals("archive")) {
+                archive = value;
+            } else if (name.equals("selfplay")) {
+                selfPlay = Integer.parseInt(value);
+            } else if (name.equals("depth")) {
+                depth = Integer.parseInt(value);
+            } else if (name.equals("weights")) {
+                start = value;
+            } else if (name.equals("epochs")) {
+                epochs = Integer.parseInt(value);
+            } else if (name.equals("rate")) {
+                rate = Double.parseDouble(value);
+            } else {
+                throw new IllegalArgumentException("unknown option: " + name);
+            }
+        }
+        if (out == null) {
+            throw new IllegalArgumentException("out=FILE is required");
+        }
+
+        PatternTrainer trainer = new PatternTrainer();
+        if (archive != null) {
+            try (GameArchive ga = GameArchive.open(Paths.get(archive))) {
+                trainer.addArchive(ga);
+            }
+        }
+        if (selfPlay > 0) {
+            PatternEvaluator.Weights weights = start == null ? null
+                    : PatternEvaluator.Weights.load(Paths.get(start));
+            trainer.addSelfPlay(selfPlay, depth, weights, new Random(1));
+        }
+        System.out.printf("%,d games, %,d positions%n", trainer.games, trainer.size);
+        if (trainer.size == 0) {
+            throw new IllegalArgumentException("no games to train on");
+        }
+        trainer.train(epochs, rate, new Random(2));
+        trainer.getWeights().save(Paths.get(out));
+    }
+
+    /**
+     * adds the positions of every finished 8x8 game in the archive
+     */
+    public void addArchive(GameArchive archive) throws IOException {
+        Othello game = new Othello();
+        for (long id = 0; id < archive.getSize(); id++) {
+            archive.load(id, game);
+            if (game.getSize() != Bitboard.SIZE || game.endGame() == 0) {
+                continue;
+            }
+            int diff = Long.bitCount(game.getBlack()) - Long.bitCount(game.getWhite());
+            boolean held = games++ % TEST_EVERY == 0;
+            // walk back to the first position
+            do {
+                boolean black = game.getCurrentPlayer();
+                long b = game.getBlack();
+                long w = game.getWhite();
+                if ((black ? game.getP1Moves() : game.getP2Moves()) != 0) {
+                    add(black ? b : w, black ? w : b, black ? diff : -diff, held);
+                }
+            } while (game.undoMove());
+        }
+    }
+
+    /**
+     * plays games with AlphaBeta (with weights, or the built-in evaluation
+     * if null) and adds their positions
+     */
+    public void addSelfPlay(int count, int depth, PatternEvaluator.Weights weights,
+            Random random) {
+        AlphaBeta search = new AlphaBeta(depth, 0);
+        search.setEndgameEmpties(Math.min(12, depth + 8));
+        search.setWeights(weights);
+        long[] ownLine = new long[2 * Bitboard.SQUARES];
+        long[] oppLine = new long[ownLine.length];
+        boolean[] blackLine = new boolean[ownLine.length];
+        for (int g = 0; g < count; g++) {
+            Position p = Position.start();
+            int n = 0;
+            while (!p.isGameOver()) {
+                long moves = p.legalMoves();
+                if (moves == 0) {
+                    p = p.play(Position.PASS);
+                    continue;
+                }
+                boolean black = p.getCurrentPlayer();
+                ownLine[n] = black ? p.getBlack() : p.getWhite();
+                oppLine[n] = black ? p.getWhite() : p.getBlack();
+                blackLine[n] = black;
+                n++;
+                int move;
+                if (n <= OPENING_PLIES || random.nextDouble() < RANDOM_MOVES) {
+                    move = RandomPlayer.pick(moves, random);
+                } else {
+                    move = search.think(p).getBestMove();
+                }
+                p = p.play(move);
+            }
+            int diff = Long.bitCount(p.getBlack()) - Long.bitCount(p.getWhite());
+            boolean held = games++ % TEST_EVERY == 0;
+            for (int i = 0; i < n; i++) {
+                add(ownLine[i], oppLine[i], blackLine[i] ? diff : -diff, held);
+            }
+        }
+    }
+
+    private void add(long ownDiscs, long oppDiscs, int diff, boolean held) {
+        if (size == own.length) {
+            own = Arrays.copyOf(own, size * 2);
+            opp = Arrays.copyOf(opp, size * 2);
+            result = Arrays.copyOf(result, size * 2);
+            test = Arrays.copyOf(test, size * 2);
+        }
+        own[size] = ownDiscs;
+        opp[size] = oppDiscs;
+        result[size] = (byte) diff;
+        test[size] = held;
+        size++;
+    }
+
+    /**
+     * fits the weights to the training positions, printing the mean
+     * error on the held back games after each epoch
+     */
+    public void train(int epochs, double rate, Random random) {
+        int[] order = new int[size];
+        int n = 0;
+        for (int i = 0; i < size; i++) {
+            if (!test[i]) {
+                order[n++] = i;
+            }
+        }
+        int[] features = new int[PatternEvaluator.INSTANCES];
+        float r = (float) rate;
+        float linear = (float) (rate * LINEAR_RATE);
+        System.out.printf("epoch 0: test error %.2f discs%n", testError(features));
+        for (int epoch = 1; epoch <= epochs; epoch++) {
+            for (int i = n - 1; i > 0; i--) {
+                int j = random.nextInt(i + 1);
+                int tmp = order[i];
+                order[i] = order[j];
+                order[j] = tmp;
+            }
+            for (int k = 0; k < n; k++) {
+                int i = order[k];
+                float[] w = weights[PatternEvaluator.phase(Long.bitCount(own[i] | opp[i]))];
+                PatternEvaluator.features(own[i], opp[i], features);
+                int mobility = PatternEvaluator.mobility(own[i], opp[i]);
+                int potential = PatternEvaluator.potential(own[i], opp[i]);
+                float error = result[i] * PatternEvaluator.SCALE
+                        - predict(w, features, mobility, potential);
+                for (int f : features) {
+                    w[f] += r * error;
+                }
+                w[PatternEvaluator.MOBILITY] += linear * error * mobility;
+                w[PatternEvaluator.POTENTIAL] += linear * error * potential;
+            }
+            symmetrize();
+            System.out.printf("epoch %d: test error %.2f discs%n", epoch, testError(features));
+        }
+    }
+
+    private static float predict(float[] w, int[] features, int mobility, int potential) {
+        float sum = w[PatternEvaluator.MOBILITY] * mobility + w[PatternEvaluator.POTENTIAL] * potential;
+        for (int f : features) {
+            sum += w[f];
+        }
+        return sum;
+    }
+
+    /**
+     * returns the mean absolute error, in discs, on the held back games
+     */
+    private double testError(int[] features) {
+        double total = 0;
+        int count = 0;
+        for (int i = 0; i < size; i++) {
+            if (test[i]) {
+                float[] w = weights[PatternEvaluator.phase(Long.bitCount(own[i] | opp[i]))];
+                PatternEvaluator.features(own[i], opp[i], features);
+                float p = predict(w, features, PatternEvaluator.mobility(own[i], opp[i]),
+                        PatternEvaluator.potential(own[i], opp[i]));
+                total += Math.abs(result[i] - p / PatternEvaluator.SCALE);
+                count++;
+            }
+        }
+        return count == 0 ? 0 : total / count;
+    }
+
+    /**
+     * averages the weights of configurations that a symmetry of their
+     * pattern (such as reading an edge from the other end) turns into
+     * each other
+     */
+    private void symmetrize() {
+        for (int p = 0; p < PatternEvaluator.PATTERN_OFFSET.length; p++) {
+            int[][] perms = symmetries(p);
+            if (perms.length == 1) {
+                continue;
+            }
+            int base = PatternEvaluator.PATTERN_OFFSET[p];
+            int[] images = new int[perms.length];
+            for (float[] w : weights) {
+                for (int c = 0; c < PatternEvaluator.PATTERN_SIZE[p]; c++) {
+                    float sum = 0;
+                    for (int k = 0; k < perms.length; k++) {
+                        images[k] = permute(c, perms[k]);
+                        sum += w[base + images[k]];
+                    }
+                    // the images are the whole orbit of c, later members of
+                    // it just work out the same average again
+                    for (int image : images) {
+                        w[base + image] = sum / perms.length;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * returns, for each symmetry of the board that maps the first instance
+     * of pattern p onto itself (the identity included), where each of its
+     * squares goes
+     */
+    private static int[][] symmetries(int p) {
+        int instance = 0;
+        while (PatternEvaluator.INSTANCE_PATTERN[instance] != p) {
+            instance++;
+        }
+        int[] squares = PatternEvaluator.INSTANCE_SQUARES[instance];
+        Set<String> seen = new HashSet<String>();
+        int[][] perms = new int[Symmetry.COUNT][];
+        int n = 0;
+        for (int t = 0; t < Symmetry.COUNT; t++) {
+            int[] perm = new int[squares.length];
+            for (int k = 0; k < squares.length; k++) {
+                int to = Symmetry.square(t, squares[k]);
+                perm[k] = -1;
+                for (int m = 0; m < squares.length; m++) {
+                    if (squares[m] == to) {
+                        perm[k] = m;
+                    }
+                }
+                if (perm[k] < 0) {
+                    perm = null;
+                    break;
+                }
+            }
+            if (perm != null && seen.add(Arrays.toString(perm))) {
+                perms[n++] = perm;
+            }
+        }
+        return Arrays.copyOf(perms, n);
+    }
+
+    /**
+     * moves digit k of configuration c (in base 3) to digit perm[k]
+     */
+    private static int permute(int c, int[] perm) {
+        int out = 0;
+        for (int k = 0; k < perm.length; k++, c /= 3) {
+            out += (c % 3) * PatternEvaluator.pow3(perm[k]);
+        }
+        return out;
+    }
+
+    /**
+     * returns the fitted weights, rounded to shorts
+     */
+    public PatternEvaluator.Weights getWeights() {
+        short[][] table = new short[PatternEvaluator.PHASES][PatternEvaluator.FEATURES];
+        for (int ph = 0; ph < table.length; ph++) {
+            for (int f = 0; f < PatternEvaluator.FEATURES; f++) {
+                long w = Math.round(weights[ph][f]);
+                table[ph][f] = (short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, w));
+            }
+        }
+        return new PatternEvaluator.Weights(table);
+    }
+}
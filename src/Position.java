@@ -0,0 +1,156 @@
+/**
+ * immutable snapshot of a game position: the discs of both players
+ * and whose turn it is
+ *
+ * none of the methods modify the position, so a single Position can
+ * be shared between threads without copying or locking. playing a
+ * move returns a new Position.
+ */
+public final class Position {
+
+    public static final int PASS = -1;
+
+    private final long black;
+    private final long white;
+    private final boolean player1; // p1 = black, p2 = white
+
+    public Position(long black, long white, boolean player1) {
+        if ((black & white) != 0) {
+            throw new IllegalArgumentException("square holds both a black and a white disc");
+        }
+        this.black = black;
+        this.white = white;
+        this.player1 = player1;
+    }
+
+    /**
+     * returns the standard starting position
+     */
+    public static Position start() {
+        return new Position(Bitboard.bit(3, 3) | Bitboard.bit(4, 4),
+                Bitboard.bit(3, 4) | Bitboard.bit(4, 3), true);
+    }
+
+    /**
+     * returns the mask of legal moves for the given disc
+     * (1 = black, 2 = white)
+     */
+    public long legalMoves(int disc) {
+        if (disc == 1) {
+            return Bitboard.legalMoves(black, white);
+        } else {
+            return Bitboard.legalMoves(white, black);
+        }
+    }
+
+    /**
+     * returns the mask of legal moves for the player to move
+     */
+    public long legalMoves() {
+        return legalMoves(player1 ? 1 : 2);
+    }
+
+    /**
+     * returns the mask of discs flipped if the given disc is played
+     * at square, 0 if the move is not legal
+     */
+    public long flips(int disc, int square) {
+        long m = 1L << square;
+        if (((black | white) & m) != 0) {
+            return 0L;
+        }
+        if (disc == 1) {
+            return Bitboard.flips(black, white, square);
+        } else {
+            return Bitboard.flips(white, black, square);
+        }
+    }
+
+    /**
+     * returns the mask of discs flipped if the player to move
+     * plays at square, 0 if the move is not legal
+     */
+    public long flips(int square) {
+        return flips(player1 ? 1 : 2, square);
+    }
+
+    public boolean isLegal(int row, int col) {
+        return (legalMoves() & Bitboard.bit(row, col)) != 0;
+    }
+
+    /**
+     * returns the position after the player to move plays at square,
+     * or passes if square is PASS
+     *
+     * throws IllegalArgumentException if the move is not legal
+     */
+    public Position play(int square) {
+        if (square == PASS) {
+            return new Position(black, white, !player1);
+        }
+        long flips = flips(square);
+        if (flips == 0) {
+            throw new IllegalArgumentException("illegal move " + square);
+        }
+        long placed = flips | (1L << square);
+        if (player1) {
+            return new Position(black | placed, white & ~flips, false);
+        } else {
+            return new Position(black & ~flips, white | placed, true);
+        }
+    }
+
+    /**
+     * returns true if neither player can move
+     */
+    public boolean isGameOver() {
+        return Bitboard.legalMoves(black, white) == 0
+                && Bitboard.legalMoves(white, black) == 0;
+    }
+
+    /**
+     * returns the contents of a square:
+     * 0 = empty, 1 = black, 2 = white
+     */
+    public int getCell(int row, int col) {
+        long m = Bitboard.bit(row, col);
+        if ((black & m) != 0) {
+            return 1;
+        } else if ((white & m) != 0) {
+            return 2;
+        }
+        return 0;
+    }
+
+    public long getBlack() {
+        return black;
+    }
+
+    public long getWhite() {
+        return white;
+    }
+
+    public boolean getCurrentPlayer() {
+        return player1;
+    }
+
+    public int getEmpties() {
+        return Bitboard.SQUARES - Long.bitCount(black | white);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (o instanceof Position) {
+            Position p = (Position) o;
+            return black == p.black && white == p.white && player1 == p.player1;
+        } else {
+            return false;
+        }
+    }
+
+    @Override
+    public int hashCode() {
+        long h = black * 0x9e3779b97f4a7c15L + white;
+        return (int) (h ^ (h >>> 32)) ^ (player1 ? 1 : 0);
+    }
+}
@@ -0,0 +1,105 @@
+import java.util.Arrays;
+
+/**
+ * fixed-size cache of position scores shared by search threads, keyed
+ * by the canonical form of the position (see Symmetry.canonical), so the
+ * 8 rotations and reflections of a position share one entry
+ *
+ * positions are given as the discs of the player to move and of the
+ * opponent, so a score stored for one side to move is found again for
+ * the same discs with the colours swapped. that is only right for scores
+ * that do not change when the board is rotated or reflected, such as
+ * AlphaBeta's evaluation.
+ *
+ * each entry is three longs in one preallocated array, and a slot is
+ * simply overwritten by the next position that maps to it. as in
+ * TranspositionTable, the key words hold key ^ data, so an entry torn
+ * by two threads writing at once reads as a miss, and no locks are needed.
+ * the counters are not synchronized and only give an idea of the hit rate.
+ */
+public class PositionCache {
+
+    public static final int MISS = Integer.MIN_VALUE;
+
+    private static final int ENTRY_LONGS = 3;
+
+    private final long[] table;
+    private final int shift;
+
+    private long probes;
+    private long hits;
+
+    /**
+     * @param megabytes memory to use, rounded down to a power of two
+     * number of entries
+     */
+    public PositionCache(int megabytes) {
+        if (megabytes < 1) {
+            throw new IllegalArgumentException("cache needs at least 1 MB");
+        }
+        long entries = ((long) megabytes << 20) / (ENTRY_LONGS * 8);
+        int n = Integer.highestOneBit((int) Math.min(entries, 1 << 26));
+        table = new long[n * ENTRY_LONGS];
+        shift = 64 - Integer.numberOfTrailingZeros(n);
+    }
+
+    /**
+     * returns the score stored for the canonical position (own, opp),
+     * MISS if there is none
+     */
+    public int probe(long own, long opp) {
+        probes++;
+        int i = index(own, opp);
+        long data = table[i + 2];
+        if (data != 0 && (table[i] ^ data) == own && (table[i + 1] ^ data) == opp) {
+            hits++;
+            return (int) (data >> 32);
+        }
+        return MISS;
+    }
+
+    /**
+     * stores score for the canonical position (own, opp)
+     */
+    public void store(long own, long opp, int score) {
+        // the low bit keeps a used entry's data word from being 0
+        long data = ((long) score << 32) | 1;
+        int i = index(own, opp);
+        table[i] = own ^ data;
+        table[i + 1] = opp ^ data;
+        table[i + 2] = data;
+    }
+
+    private int index(long own, long opp) {
+        long h = own * 0x9e3779b97f4a7c15L + opp * 0xc2b2ae3d27d4eb4fL;
+        return (int) ((h ^ (h >>> 31)) * 0x94d049bb133111ebL >>> shift) * ENTRY_LONGS;
+    }
+
+    public void clear() {
+        Arrays.fill(table, 0L);
+        probes = 0;
+        hits = 0;
+    }
+
+    /**
+     * returns the number of positions the cache can hold
+     */
+    public int getCapacity() {
+        return table.length / ENTRY_LONGS;
+    }
+
+    public long getProbes() {
+        return probes;
+    }
+
+    public long getHits() {
+        return hits;
+    }
+
+    /**
+     * fraction of probes that found the position
+     */
+    public double getHitRate() {
+        return probes == 0 ? 0 : (double) hits / probes;
+    }
+}
@@ -0,0 +1,383 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * on-disk index from every position reached in a set of games to those
+ * games, what was played next and how they ended
+ *
+ * layout (big endian): int magic, int version, long number of entries,
+ * then 16 byte entries sorted by (key, value):
+ * - long key: the canonical hash of the position (see Symmetry), so
+ *   rotations and reflections of a position share their entries
+ * - long value: game << 24 | ply << 16 | next << 8 | result, where next
+ *   is the move played from the position turned into the canonical
+ *   orientation (PASS_MOVE for a pass, END if the game stopped there)
+ *   and result is that of the game, as Othello.endGame
+ *
+ * the file is memory mapped in chunks, so it can be larger than 2 GB
+ * and a lookup only reads the pages its binary search touches. it is
+ * written by a Builder.
+ */
+public class PositionIndex {
+
+    public static final int PASS_MOVE = 64;
+    public static final int END = 65;
+
+    private static final int MAGIC = 0x4f504931; // "OPI1"
+    private static final int VERSION = 1;
+    private static final int HEADER = 16;
+    private static final int ENTRY = 16;
+    private static final long CHUNK = 1L << 30; // bytes of entries per mapped buffer
+    private static final int BUFFER_BYTES = 256 * 1024;
+
+    private final MappedByteBuffer[] chunks;
+    private final long entries;
+
+    private PositionIndex(MappedByteBuffer[] chunks, long entries) {
+        this.chunks = chunks;
+        this.entries = entries;
+    }
+
+    /**
+     * opens an index written by a Builder
+     *
+     * throws IOException if the file cannot be read or is not an index
+     */
+    public static PositionIndex open(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long length = channel.size();
+            if (length < HEADER || (length - HEADER) % ENTRY != 0) {
+                throw new IOException("position index is damaged: " + path);
+            }
+            MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER);
+            long entries = header.getLong(8);
+            if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION
+                    || entries != (length - HEADER) / ENTRY) {
+                throw new IOException("not a position index: " + path);
+            }
+            int n = (int) ((length - HEADER + CHUNK - 1) / CHUNK);
+            MappedByteBuffer[] chunks = new MappedByteBuffer[n];
+            for (int i = 0; i < n; i++) {
+                long offset = HEADER + i * CHUNK;
+                chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, offset,
+                        Math.min(CHUNK, length - offset));
+            }
+            return new PositionIndex(chunks, entries);
+        }
+    }
+
+    /**
+     * packs an entry value, next in the canonical orientation
+     */
+    public static long value(long game, int ply, int next, int result) {
+        return game << 24 | (long) Math.min(ply, 255) << 16 | next << 8 | result;
+    }
+
+    private long keyAt(long i) {
+        return chunks[(int) (i * ENTRY / CHUNK)].getLong((int) (i * ENTRY % CHUNK));
+    }
+
+    private long valueAt(long i) {
+        return chunks[(int) (i * ENTRY / CHUNK)].getLong((int) (i * ENTRY % CHUNK) + 8);
+    }
+
+    /**
+     * returns how often the position (or a rotation or reflection of it)
+     * was reached, how those games ended, and the moves played from it,
+     * turned back to the position's own orientation. when the position
+     * is itself symmetric, moves that are the same up to that symmetry
+     * are counted together under one of them
+     */
+    public Stats lookup(Position position) {
+        long[] canonical = new long[2];
+        int t = Symmetry.canonical(position.getBlack(), position.getWhite(), canonical);
+        long key = Zobrist.hash(canonical[0], canonical[1], position.getCurrentPlayer());
+        int back = Symmetry.inverse(t);
+
+        Stats stats = new Stats();
+        for (long i = first(key); i < entries && keyAt(i) == key; i++) {
+            long value = valueAt(i);
+            int next = (int) (value >>> 8) & 0xff;
+            if (next < PASS_MOVE) {
+                next = Symmetry.square(back, next);
+            }
+            stats.add(value >>> 24, next, (int) value & 0xff);
+        }
+        return stats;
+    }
+
+    /**
+     * returns the first entry with the given key, or the first one after it
+     */
+    private long first(long key) {
+        long lo = 0;
+        long hi = entries;
+        while (lo < hi) {
+            long mid = (lo + hi) >>> 1;
+            if (keyAt(mid) < key) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    public long getEntries() {
+        return entries;
+    }
+
+    /**
+     * what an index knows about one position
+     */
+    public static class Stats {
+        private long count;
+        private final long[] results = new long[4]; // by Othello.endGame
+        private final long[] next = new long[END + 1]; // by square, PASS_MOVE, END
+        private long firstGame = -1;
+
+        void add(long game, int move, int result) {
+            if (count == 0) {
+                firstGame = game;
+            }
+            count++;
+            results[result]++;
+            next[move]++;
+        }
+
+        /**
+         * returns the number of times the position was reached
+         */
+        public long getCount() {
+            return count;
+        }
+
+        /**
+         * returns how many of the games that reached the position ended
+         * with result (0 = not finished, else as Othello.endGame)
+         */
+        public long getResults(int result) {
+            return results[result];
+        }
+
+        /**
+         * returns how many times square (or PASS_MOVE, or END) was played next
+         */
+        public long getNext(int square) {
+            return next[square];
+        }
+
+        /**
+         * returns the lowest numbered game that reached the position, -1 if none
+         */
+        public long getFirstGame() {
+            return firstGame;
+        }
+
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            sb.append(count).append(" games: ").append(results[1]).append(" black wins, ")
+                    .append(results[2]).append(" white wins, ").append(results[3])
+                    .append(" draws, ").append(results[0]).append(" unfinished; next:");
+            for (int sq = 0; sq < next.length; sq++) {
+                if (next[sq] > 0) {
+                    String name = sq == END ? "end" : sq == PASS_MOVE ? "pass"
+                            : SearchResult.squareName(sq);
+                    sb.append(' ').append(name).append(' ').append(next[sq]);
+                }
+            }
+            return sb.toString();
+        }
+    }
+
+    /**
+     * writes an index from entries added in any order, by any number
+     * of threads
+     *
+     * each thread adds through its own Buffer. a full buffer is sorted and
+     * written to a run file next to the index, so memory stays bounded
+     * however many games there are. close merges the runs, and the
+     * entries of the index already at the path if there is one, into
+     * a new index that replaces it.
+     */
+    public static class Builder implements Closeable {
+
+        private final Path path;
+        private final int bufferEntries;
+        private final AtomicInteger nextRun = new AtomicInteger();
+        private final List<Path> runs = new ArrayList<Path>();
+
+        /**
+         * @param bufferEntries entries each Buffer holds before it is written out
+         */
+        public Builder(Path path, int bufferEntries) {
+            this.path = path;
+            this.bufferEntries = bufferEntries;
+        }
+
+        /**
+         * returns a new buffer to add entries through, for one thread
+         */
+        public Buffer buffer() {
+            return new Buffer();
+        }
+
+        /**
+         * sorts entries 0..n-1 of keys and values and writes them to a new run file
+         */
+        private void writeRun(long[] keys, long[] values, int n) throws IOException {
+            if (n == 0) {
+                return;
+            }
+            PairSort.sort(keys, values, 0, n - 1);
+            Path run = path.resolveSibling(path.getFileName() + ".run" + nextRun.getAndIncrement());
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                    Files.newOutputStream(run), BUFFER_BYTES))) {
+                for (int i = 0; i < n; i++) {
+                    out.writeLong(keys[i]);
+                    out.writeLong(values[i]);
+                }
+            }
+            synchronized (runs) {
+                runs.add(run);
+            }
+        }
+
+        /**
+         * merges the runs into the index. every Buffer must have been
+         * finished first
+         */
+        public void close() throws IOException {
+            PriorityQueue<Run> queue = new PriorityQueue<Run>();
+            List<Run> open = new ArrayList<Run>();
+            Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+            try {
+                if (Files.exists(path)) {
+                    // checks it is an index before its entries are merged in
+                    open(path);
+                    open.add(new Run(path, HEADER));
+                }
+                for (Path run : runs) {
+                    open.add(new Run(run, 0));
+                }
+                long total = 0;
+                for (Run run : open) {
+                    if (run.next()) {
+                        queue.add(run);
+                    }
+                }
+                try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE,
+                        StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                            Channels.newOutputStream(channel), BUFFER_BYTES));
+                    out.writeInt(MAGIC);
+                    out.writeInt(VERSION);
+                    out.writeLong(0); // filled in below
+                    while (!queue.isEmpty()) {
+                        Run run = queue.poll();
+                        out.writeLong(run.key);
+                        out.writeLong(run.value);
+                        total++;
+                        if (run.next()) {
+                            queue.add(run);
+                        }
+                    }
+                    out.flush();
+                    ByteBuffer count = ByteBuffer.allocate(8).putLong(0, total);
+                    channel.write(count, 8);
+                    channel.force(false);
+                }
+            } finally {
+                for (Run run : open) {
+                    run.in.close();
+                }
+            }
+            Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+            for (Path run : runs) {
+                Files.delete(run);
+            }
+            runs.clear();
+        }
+
+        /**
+         * entries collected by one thread, written out as a run when full
+         */
+        public class Buffer {
+            private final long[] keys = new long[bufferEntries];
+            private final long[] values = new long[bufferEntries];
+            private int size;
+
+            public void add(long key, long value) throws IOException {
+                if (size == keys.length) {
+                    writeRun(keys, values, size);
+                    size = 0;
+                }
+                keys[size] = key;
+                values[size] = value;
+                size++;
+            }
+
+            /**
+             * writes out the entries still in the buffer
+             */
+            public void finish() throws IOException {
+                writeRun(keys, values, size);
+                size = 0;
+            }
+        }
+    }
+
+    /**
+     * reads the sorted entries of a run file (or of an index, after its
+     * header) one at a time, for the merge
+     */
+    private static class Run implements Comparable<Run> {
+        final DataInputStream in;
+        long key;
+        long value;
+
+        Run(Path path, int skip) throws IOException {
+            in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path),
+                    BUFFER_BYTES));
+            in.skipBytes(skip);
+        }
+
+        /**
+         * reads the next entry, returns false at the end of the file
+         */
+        boolean next() throws IOException {
+            try {
+                key = in.readLong();
+            } catch (EOFException e) {
+                return false;
+            }
+            value = in.readLong();
+            return true;
+        }
+
+        public int compareTo(Run o) {
+            if (key != o.key) {
+                return key < o.key ? -1 : 1;
+            }
+            return Long.compare(value, o.value);
+        }
+    }
+}
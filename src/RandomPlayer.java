@@ -0,0 +1,44 @@
+import java.util.Random;
+
+/**
+ * computer player that picks one of its legal moves at random,
+ * used as a baseline opponent
+ */
+public class RandomPlayer implements Engine {
+
+    private final Random random;
+
+    public RandomPlayer(long seed) {
+        random = new Random(seed);
+    }
+
+    public RandomPlayer() {
+        random = new Random();
+    }
+
+    public SearchResult think(Position position) {
+        int move = pick(position.legalMoves(), random);
+        int[] pv = move == Position.PASS ? new int[0] : new int[] {move};
+        return new SearchResult(move, 0, 0, pv, 0, 0);
+    }
+
+    public void stop() {
+    }
+
+    public void setListener(SearchListener listener) {
+    }
+
+    /**
+     * returns a random square from the mask, Position.PASS if it is empty
+     */
+    public static int pick(long moves, Random random) {
+        if (moves == 0) {
+            return Position.PASS;
+        }
+        int k = random.nextInt(Long.bitCount(moves));
+        for (int i = 0; i < k; i++) {
+            moves &= moves - 1;
+        }
+        return Long.numberOfTrailingZeros(moves);
+    }
+}
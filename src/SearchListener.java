@@ -0,0 +1,11 @@
+/**
+ * receives the progress of a running search, e.g. to show it while the
+ * engine thinks
+ *
+ * progress is called on the search thread, once for each finished
+ * iteration, with the best move, score and line found so far.
+ */
+public interface SearchListener {
+
+    void progress(SearchResult result);
+}
@@ -0,0 +1,72 @@
+/**
+ * result of an engine search: the best move, its score and the 
+ * principal variation (the line of play the engine expects)
+ *
+ * moves are square indices (see Bitboard), Position.PASS if the
+ * player has to skip their turn
+ */
+public final class SearchResult {
+
+    private final int bestMove;
+    private final int score;
+    private final int depth;
+    private final int[] pv;
+    private final long nodes;
+    private final long timeMillis;
+
+    public SearchResult(int bestMove, int score, int depth, int[] pv, long nodes, long timeMillis) {
+        this.bestMove = bestMove;
+        this.score = score;
+        this.depth = depth;
+        this.pv = pv.clone();
+        this.nodes = nodes;
+        this.timeMillis = timeMillis;
+    }
+
+    public int getBestMove() {
+        return bestMove;
+    }
+
+    /**
+     * score from the point of view of the player to move,
+     * positive is good for them
+     */
+    public int getScore() {
+        return score;
+    }
+
+    public int getDepth() {
+        return depth;
+    }
+
+    public int[] getPv() {
+        return pv.clone();
+    }
+
+    public long getNodes() {
+        return nodes;
+    }
+
+    public long getTimeMillis() {
+        return timeMillis;
+    }
+
+    /**
+     * returns a square in the usual notation, e.g. "d3" for row 2, col 3
+     */
+    public static String squareName(int square) {
+        if (square == Position.PASS) {
+            return "pass";
+        }
+        return "" + (char) ('a' + Bitboard.col(square)) + (Bitboard.row(square) + 1);
+    }
+
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("depth ").append(depth).append(" score ").append(score).append(" pv");
+        for (int move : pv) {
+            sb.append(' ').append(squareName(move));
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,159 @@
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * holds the games of many sessions with at most a fixed number of them
+ * in memory
+ *
+ * games are kept in least recently used order. when there are more than
+ * maxResident, the least recently used one is passivated: written to
+ * session-ID.dat in the store's directory in the GameCodec format and
+ * dropped from the heap. asking for it again reads it back. so memory
+ * stays the same however many sessions are open, and a session that
+ * comes back after a while pays one small file read.
+ *
+ * a file read back is kept until the session is removed or its game is
+ * written out again (to a temporary file renamed over it), so there is
+ * always a complete copy of a passivated game on disk. a file that cannot
+ * be read back is deleted, so the error is reported once and the session
+ * carries on with a new game.
+ */
+public class SessionStore {
+
+    private final Path dir;
+    private final int maxResident;
+    // access order: iteration starts at the least recently used game
+    private final LinkedHashMap<Long, Othello> resident;
+
+    private long evictions;
+    private long reloads;
+    private long reloadNanos;
+    private long maxReloadNanos;
+    private int passivated;
+
+    /**
+     * a store that passivates games to dir (created if needed). games
+     * passivated by an earlier store in dir are deleted
+     */
+    public SessionStore(Path dir, int maxResident) throws IOException {
+        if (maxResident < 1) {
+            throw new IllegalArgumentException("must keep at least one game: " + maxResident);
+        }
+        Files.createDirectories(dir);
+        try (DirectoryStream<Path> old = Files.newDirectoryStream(dir, "session-*.{dat,tmp}")) {
+            for (Path path : old) {
+                Files.delete(path);
+            }
+        }
+        this.dir = dir;
+        this.maxResident = maxResident;
+        this.resident = new LinkedHashMap<Long, Othello>(16, 0.75f, true);
+    }
+
+    /**
+     * returns the game of session id, reading it back from disk if it was
+     * passivated, or a new game if the session has none yet. the game
+     * may be passivated by a later call, so it should not be kept
+     *
+     * throws IOException if a passivated game cannot be read back (the
+     * next call then starts a new game), or the least recently used game
+     * cannot be written out
+     */
+    public synchronized Othello get(long id) throws IOException {
+        Othello game = resident.get(id);
+        if (game != null) {
+            return game;
+        }
+        game = new Othello();
+        Path path = path(id);
+        if (Files.exists(path)) {
+            long t0 = System.nanoTime();
+            passivated--;
+            try {
+                GameCodec.read(path, game);
+            } catch (IOException e) {
+                Files.deleteIfExists(path);
+                throw e;
+            }
+            long nanos = System.nanoTime() - t0;
+            reloads++;
+            reloadNanos += nanos;
+            maxReloadNanos = Math.max(maxReloadNanos, nanos);
+        }
+        resident.put(id, game);
+        evict();
+        return game;
+    }
+
+    /**
+     * passivates least recently used games until at most maxResident are left
+     */
+    private void evict() throws IOException {
+        Iterator<Map.Entry<Long, Othello>> it = resident.entrySet().iterator();
+        while (resident.size() > maxResident) {
+            Map.Entry<Long, Othello> eldest = it.next();
+            Path path = path(eldest.getKey());
+            Path tmp = dir.resolve("session-" + eldest.getKey() + ".tmp");
+            GameCodec.write(eldest.getValue(), tmp);
+            Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+            it.remove();
+            passivated++;
+            evictions++;
+        }
+    }
+
+    /**
+     * forgets the game of session id, in memory and on disk
+     */
+    public synchronized void remove(long id) throws IOException {
+        boolean wasResident = resident.remove(id) != null;
+        // a resident game may still have the file it was read back from
+        if (Files.deleteIfExists(path(id)) && !wasResident) {
+            passivated--;
+        }
+    }
+
+    private Path path(long id) {
+        return dir.resolve("session-" + id + ".dat");
+    }
+
+    public synchronized int getResident() {
+        return resident.size();
+    }
+
+    public synchronized int getPassivated() {
+        return passivated;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    public synchronized long getReloads() {
+        return reloads;
+    }
+
+    /**
+     * returns the mean time to read back a passivated game, in microseconds
+     */
+    public synchronized double getMeanReloadMicros() {
+        return reloads == 0 ? 0 : reloadNanos / 1e3 / reloads;
+    }
+
+    public synchronized double getMaxReloadMicros() {
+        return maxReloadNanos / 1e3;
+    }
+
+    public synchronized String toString() {
+        return String.format("%d resident, %d passivated, %d evictions, %d reloads "
+                + "(mean %.0f us, max %.0f us)", getResident(), passivated, evictions,
+                reloads, getMeanReloadMicros(), getMaxReloadMicros());
+    }
+}
@@ -0,0 +1,200 @@
+/**
+ * the 8 symmetries of the board (rotations and reflections) applied
+ * to bitboards and squares
+ *
+ * transform t is built from 3 bits, applied in this order:
+ * 1 = mirror the columns, 2 = mirror the rows, 4 = swap rows and columns.
+ * t = 0 leaves the board as it is.
+ */
+public final class Symmetry {
+
+    public static final int COUNT = 8;
+
+    private static final int[] INVERSE = new int[COUNT];
+
+    static {
+        for (int t = 0; t < COUNT; t++) {
+            for (int u = 0; u < COUNT; u++) {
+                if (square(u, square(t, 1)) == 1 && square(u, square(t, 2)) == 2
+                        && square(u, square(t, 8)) == 8) {
+                    INVERSE[t] = u;
+                }
+            }
+        }
+    }
+
+    private Symmetry() {
+    }
+
+    /**
+     * mirrors the columns: (row, col) -> (row, 7 - col)
+     */
+    public static long flipHorizontal(long b) {
+        b = ((b >>> 1) & 0x5555555555555555L) | ((b & 0x5555555555555555L) << 1);
+        b = ((b >>> 2) & 0x3333333333333333L) | ((b & 0x3333333333333333L) << 2);
+        b = ((b >>> 4) & 0x0f0f0f0f0f0f0f0fL) | ((b & 0x0f0f0f0f0f0f0f0fL) << 4);
+        return b;
+    }
+
+    /**
+     * mirrors the rows: (row, col) -> (7 - row, col)
+     */
+    public static long flipVertical(long b) {
+        return Long.reverseBytes(b);
+    }
+
+    /**
+     * swaps rows and columns: (row, col) -> (col, row)
+     */
+    public static long transpose(long b) {
+        long t;
+        t = 0x0f0f0f0f00000000L & (b ^ (b << 28));
+        b ^= t ^ (t >>> 28);
+        t = 0x3333000033330000L & (b ^ (b << 14));
+        b ^= t ^ (t >>> 14);
+        t = 0x5500550055005500L & (b ^ (b << 7));
+        b ^= t ^ (t >>> 7);
+        return b;
+    }
+
+    /**
+     * applies transform t to a bitboard
+     */
+    public static long apply(int t, long b) {
+        if ((t & 1) != 0) {
+            b = flipHorizontal(b);
+        }
+        if ((t & 2) != 0) {
+            b = flipVertical(b);
+        }
+        if ((t & 4) != 0) {
+            b = transpose(b);
+        }
+        return b;
+    }
+
+    /**
+     * applies transform t to a square index, PASS stays PASS
+     */
+    public static int square(int t, int sq) {
+        if (sq < 0) {
+            return sq;
+        }
+        int row = Bitboard.row(sq);
+        int col = Bitboard.col(sq);
+        if ((t & 1) != 0) {
+            col = 7 - col;
+        }
+        if ((t & 2) != 0) {
+            row = 7 - row;
+        }
+        if ((t & 4) != 0) {
+            int tmp = row;
+            row = col;
+            col = tmp;
+        }
+        return Bitboard.square(row, col);
+    }
+
+    /**
+     * returns the transform that undoes t
+     */
+    public static int inverse(int t) {
+        return INVERSE[t];
+    }
+
+    /**
+     * returns the transform that maps the position onto its canonical
+     * form: of the 8 symmetric versions, the one with the smallest
+     * (black, white) pair. symmetric positions have the same canonical form.
+     */
+    public static int canonicalTransform(long black, long white) {
+        return canonicalize(black, white, null);
+    }
+
+    /**
+     * puts the canonical form of (black, white) into out[0] and out[1],
+     * without allocating, and returns the transform that gives it. it
+     * works the same for any pair of disc masks, such as the mover's and
+     * the opponent's discs
+     */
+    public static int canonical(long black, long white, long[] out) {
+        return canonicalize(black, white, out);
+    }
+
+    private static int canonicalize(long black, long white, long[] out) {
+        // the 8 versions of black are worked out from 3 shuffles
+        long hb = flipHorizontal(black);
+        long tb = transpose(black);
+        long htb = flipHorizontal(tb);
+
+        int best = 0;
+        long bestBlack = black;
+        boolean tie = false;
+        for (int t = 1; t < COUNT; t++) {
+            long b = version(t, black, hb, tb, htb);
+            int cmp = Long.compareUnsigned(b, bestBlack);
+            if (cmp < 0) {
+                best = t;
+                bestBlack = b;
+                tie = false;
+            } else if (cmp == 0) {
+                tie = true;
+            }
+        }
+
+        long bestWhite;
+        if (!tie) {
+            bestWhite = apply(best, white);
+        } else {
+            // black looks the same under several transforms, white decides
+            long hw = flipHorizontal(white);
+            long tw = transpose(white);
+            long htw = flipHorizontal(tw);
+            bestWhite = version(best, white, hw, tw, htw);
+            for (int t = best + 1; t < COUNT; t++) {
+                if (version(t, black, hb, tb, htb) != bestBlack) {
+                    continue;
+                }
+                long w = version(t, white, hw, tw, htw);
+                if (Long.compareUnsigned(w, bestWhite) < 0) {
+                    best = t;
+                    bestWhite = w;
+                }
+            }
+        }
+        if (out != null) {
+            out[0] = bestBlack;
+            out[1] = bestWhite;
+        }
+        return best;
+    }
+
+    /**
+     * returns transform t of b, given b mirrored (h), transposed (tr),
+     * and transposed then mirrored (htr). the rest are byte reversals of
+     * those, as mirroring the rows reverses the bytes
+     */
+    private static long version(int t, long b, long h, long tr, long htr) {
+        switch (t) {
+            case 0: return b;
+            case 1: return h;
+            case 2: return Long.reverseBytes(b);
+            case 3: return Long.reverseBytes(h);
+            case 4: return tr;
+            case 5: return Long.reverseBytes(tr); // the transpose of h
+            case 6: return htr; // the transpose of the mirrored rows
+            default: return Long.reverseBytes(htr);
+        }
+    }
+
+    /**
+     * returns a hash of the position that is the same for all 8
+     * symmetric versions of it
+     */
+    public static long canonicalHash(Position position) {
+        int t = canonicalTransform(position.getBlack(), position.getWhite());
+        return Zobrist.hash(apply(t, position.getBlack()), apply(t, position.getWhite()),
+                position.getCurrentPlayer());
+    }
+}
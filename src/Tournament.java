@@ -0,0 +1,344 @@
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Method;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * headless match between two engines, run from the command line:
+ *
+ *   java Tournament [games=N] [a=SPEC] [b=SPEC] [opening=PLIES] [threads=N]
+ *                   [archive=DIR] [book=FILE]
+ *
+ * where an engine SPEC is one of
+ *   random
+ *   alphabeta:DEPTH[:MILLIS[:ENDGAME_EMPTIES]]
+ *   parallel:THREADS:DEPTH[:MILLIS]
+ *   pattern:WEIGHTS_FILE:DEPTH[:MILLIS[:ENDGAME_EMPTIES]]  (alphabeta with PatternEvaluator weights)
+ *   mcts:THREADS:MILLIS[:PLAYOUTS]  (MonteCarloSearch, MILLIS 0 for playouts only)
+ *
+ * games are played on Othello directly, without a GameBoard. each game
+ * runs as its own task (on a virtual thread when the JVM has them) and
+ * borrows a pair of engines from a fixed pool, so the memory used does
+ * not grow with the number of games. each pair of games starts from the
+ * same random opening with the colours swapped. totals are printed as
+ * games finish. with archive=DIR every game is added to the GameArchive
+ * in DIR. with book=FILE the alphabeta, parallel and pattern engines play
+ * book moves from the OpeningBook in FILE without searching.
+ */
+public class Tournament {
+
+    private final Supplier<Engine> engineA;
+    private final Supplier<Engine> engineB;
+    private final int games;
+    private final int openingPlies;
+    private final int parallelism;
+    private final long seed;
+    private GameArchive archive; // null if games are not kept
+
+    // running totals from A's point of view, guarded by this
+    private int finished;
+    private int wins;
+    private int draws;
+    private int losses;
+    private long discDiff;
+    private long startNanos;
+
+    public Tournament(Supplier<Engine> engineA, Supplier<Engine> engineB,
+            int games, int openingPlies, int parallelism, long seed) {
+        this.engineA = engineA;
+        this.engineB = engineB;
+        this.games = games;
+        this.openingPlies = openingPlies;
+        this.parallelism = parallelism;
+        this.seed = seed;
+    }
+
+    public static void main(String[] args) throws InterruptedException, IOException {
+        int games = 1000;
+        String a = "alphabeta:4";
+        String b = "random";
+        int opening = 4;
+        int threads = Runtime.getRuntime().availableProcessors();
+        String archive = null;
+        OpeningBook book = null;
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (eq < 0) {
+                throw new IllegalArgumentException("expected name=value: " + arg);
+            }
+            String name = arg.substring(0, eq);
+            String value = arg.substring(eq + 1);
+            if (name.equals("games")) {
+                games = Integer.parseInt(value);
+            } else if (name.equals("a")) {
+                a = value;
+            } else if (name.equals("b")) {
+                b = value;
+            } else if (name.equals("opening")) {
+                opening = Integer.parseInt(value);
+            } else if (name.equals("threads")) {
+                threads = Integer.parseInt(value);
+            } else if (name.equals("archive")) {
+                archive = value;
+            } else if (name.equals("book")) {
+                book = OpeningBook.open(Paths.get(value));
+            } else {
+                throw new IllegalArgumentException("unknown option: " + name);
+            }
+        }
+        System.out.println(a + " vs " + b + ", " + games + " games");
+        Tournament t = new Tournament(engine(a, book), engine(b, book), games, opening, threads, 1L);
+        if (archive == null) {
+            t.run(System.out);
+            return;
+        }
+        try (GameArchive ga = GameArchive.open(Paths.get(archive))) {
+            t.setArchive(ga);
+            t.run(System.out);
+            System.out.println(ga.getSize() + " games in " + archive);
+        }
+    }
+
+    /**
+     * returns a factory for the engine described by spec (see above)
+     */
+    public static Supplier<Engine> engine(String spec) {
+        return engine(spec, null);
+    }
+
+    /**
+     * returns a factory for the engine described by spec, the alpha-beta
+     * engines playing from book (null for none)
+     */
+    public static Supplier<Engine> engine(String spec, OpeningBook book) {
+        String[] parts = spec.split(":");
+        if (parts[0].equals("random")) {
+            return () -> new RandomPlayer();
+        } else if (parts[0].equals("alphabeta")) {
+            int depth = Integer.parseInt(parts[1]);
+            long millis = parts.length > 2 ? Long.parseLong(parts[2]) : 0;
+            int empties = parts.length > 3 ? Integer.parseInt(parts[3]) : -1;
+            return () -> {
+                AlphaBeta ab = new AlphaBeta(depth, millis, new TranspositionTable(4));
+                ab.setBook(book);
+                if (empties >= 0) {
+                    ab.setEndgameEmpties(empties);
+                }
+                return ab;
+            };
+        } else if (parts[0].equals("parallel")) {
+            int threads = Integer.parseInt(parts[1]);
+            int depth = Integer.parseInt(parts[2]);
+            long millis = parts.length > 3 ? Long.parseLong(parts[3]) : 0;
+            return () -> {
+                ParallelSearch search = new ParallelSearch(threads, depth, millis, 16);
+                search.setBook(book);
+                return search;
+            };
+        } else if (parts[0].equals("mcts")) {
+            int threads = Integer.parseInt(parts[1]);
+            long millis = Long.parseLong(parts[2]);
+            long playouts = parts.length > 3 ? Long.parseLong(parts[3]) : 0;
+            return () -> new MonteCarloSearch(threads, millis, playouts,
+                    MonteCarloSearch.DEFAULT_NODES);
+        } else if (parts[0].equals("pattern")) {
+            PatternEvaluator.Weights weights;
+            try {
+                weights = PatternEvaluator.Weights.load(Paths.get(parts[1]));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            int depth = Integer.parseInt(parts[2]);
+            long millis = parts.length > 3 ? Long.parseLong(parts[3]) : 0;
+            int empties = parts.length > 4 ? Integer.parseInt(parts[4]) : -1;
+            return () -> {
+                AlphaBeta ab = new AlphaBeta(depth, millis, new TranspositionTable(4));
+                ab.setWeights(weights);
+                ab.setBook(book);
+                if (empties >= 0) {
+                    ab.setEndgameEmpties(empties);
+                }
+                return ab;
+            };
+        }
+        throw new IllegalArgumentException("unknown engine: " + spec);
+    }
+
+    /**
+     * adds every game played from now on to archive (null to stop)
+     */
+    public void setArchive(GameArchive archive) {
+        this.archive = archive;
+    }
+
+    /**
+     * plays all the games, printing the totals to out as they finish
+     *
+     * throws IllegalStateException, once every game has ended, if a game
+     * failed (for example an engine played an illegal move)
+     */
+    public void run(PrintStream out) throws InterruptedException {
+        // one engine pair per game that can run at the same time
+        BlockingQueue<Engine[]> pool = new ArrayBlockingQueue<Engine[]>(parallelism);
+        for (int i = 0; i < parallelism; i++) {
+            pool.add(new Engine[] {engineA.get(), engineB.get()});
+        }
+
+        startNanos = System.nanoTime();
+        int reportEvery = Math.max(1, games / 20);
+        ExecutorService executor = newExecutor(parallelism);
+        List<Future<?>> results = new ArrayList<Future<?>>(games);
+        for (int g = 0; g < games; g++) {
+            final int game = g;
+            results.add(executor.submit(() -> {
+                Engine[] engines = null;
+                try {
+                    engines = pool.take();
+                    int diff = play(engines[0], engines[1], game);
+                    record(diff, reportEvery, out);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    if (engines != null) {
+                        pool.add(engines);
+                    }
+                }
+            }));
+        }
+        executor.shutdown();
+        executor.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+
+        for (Engine[] engines : pool) {
+            for (Engine e : engines) {
+                e.shutdown();
+            }
+        }
+        for (int g = 0; g < results.size(); g++) {
+            try {
+                results.get(g).get();
+            } catch (ExecutionException e) {
+                throw new IllegalStateException("game " + g + " failed", e.getCause());
+            }
+        }
+        synchronized (this) {
+            out.println("final: " + summary());
+        }
+    }
+
+    /**
+     * plays one game and returns the final disc difference for A. A is
+     * black in even games; games 2k and 2k + 1 share their opening
+     */
+    private int play(Engine a, Engine b, int game) {
+        boolean aIsBlack = game % 2 == 0;
+        Othello o = new Othello();
+
+        Random random = new Random(seed * 31 + game / 2);
+        for (int i = 0; i < openingPlies && !o.getGameOver(); i++) {
+            long legal = o.getCurrentPlayer() ? o.getP1Moves() : o.getP2Moves();
+            if (legal == 0) {
+                o.skip();
+            } else {
+                o.makeMove(RandomPlayer.pick(legal, random));
+            }
+        }
+
+        while (!o.getGameOver()) {
+            long legal = o.getCurrentPlayer() ? o.getP1Moves() : o.getP2Moves();
+            if (legal == 0) {
+                o.skip();
+                continue;
+            }
+            Engine e = o.getCurrentPlayer() == aIsBlack ? a : b;
+            SearchResult r = e.think(o.getPosition());
+            if (!o.makeMove(r.getBestMove())) {
+                throw new IllegalStateException("engine played an illegal move: "
+                        + SearchResult.squareName(r.getBestMove()));
+            }
+        }
+
+        if (archive != null) {
+            try {
+                archive.add(o);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        int diff = o.getP1Score() - o.getP2Score();
+        return aIsBlack ? diff : -diff;
+    }
+
+    private synchronized void record(int diff, int reportEvery, PrintStream out) {
+        finished++;
+        if (diff > 0) {
+            wins++;
+        } else if (diff < 0) {
+            losses++;
+        } else {
+            draws++;
+        }
+        discDiff += diff;
+        if (finished % reportEvery == 0) {
+            out.println(summary());
+        }
+    }
+
+    private String summary() {
+        double seconds = (System.nanoTime() - startNanos) / 1e9;
+        double score = finished == 0 ? 0.5 : (wins + draws / 2.0) / finished;
+        return String.format("%d games: +%d =%d -%d, score %.1f%%, elo %s, "
+                + "avg disc diff %+.2f, %.1f games/s",
+                finished, wins, draws, losses, score * 100, elo(score),
+                finished == 0 ? 0.0 : (double) discDiff / finished, finished / seconds);
+    }
+
+    /**
+     * Elo difference that gives the expected score, e.g. +191 for 75%
+     */
+    private static String elo(double score) {
+        if (score <= 0) {
+            return "-inf";
+        } else if (score >= 1) {
+            return "+inf";
+        }
+        return String.format("%+.0f", -400 * Math.log10(1 / score - 1));
+    }
+
+    /**
+     * a virtual thread per task if this JVM supports them (Java 21+),
+     * otherwise a pool with one platform thread per game that can run
+     */
+    private static ExecutorService newExecutor(int threads) {
+        try {
+            Method m = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) m.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newFixedThreadPool(threads);
+        }
+    }
+
+    public synchronized int getWins() {
+        return wins;
+    }
+
+    public synchronized int getDraws() {
+        return draws;
+    }
+
+    public synchronized int getLosses() {
+        return losses;
+    }
+}
@@ -0,0 +1,195 @@
+import java.util.Arrays;
+
+/**
+ * fixed-size hash table of search results, keyed by Zobrist hash
+ *
+ * all entries live in one preallocated long[] (a key and a packed data
+ * word per entry), so probing and storing never allocate. entries are
+ * grouped in buckets of two: the first slot keeps the deepest result
+ * (replaced only by a search at least as deep or from an older search),
+ * the second slot is always replaced.
+ *
+ * the table can be shared by several search threads without locking:
+ * the key slot holds key ^ data, so an entry whose two words were written
+ * by different threads does not match any key and reads as a miss.
+ *
+ * the statistics counters are not synchronized and are only meant to
+ * give an idea of the hit and collision rates.
+ */
+public class TranspositionTable {
+
+    // bound types
+    public static final int EXACT = 1;
+    public static final int LOWER = 2; // score is at least the stored value (fail high)
+    public static final int UPPER = 3; // score is at most the stored value (fail low)
+
+    public static final int NO_MOVE = -2;
+
+    private static final int ENTRY_LONGS = 2;
+    private static final int BUCKET_ENTRIES = 2;
+    private static final int ENTRY_BYTES = ENTRY_LONGS * 8;
+
+    // data word layout
+    private static final int MOVE_SHIFT = 0;     // 7 bits, square, PASS or NO_MOVE
+    private static final int DEPTH_SHIFT = 7;    // 8 bits
+    private static final int FLAG_SHIFT = 15;    // 2 bits
+    private static final int AGE_SHIFT = 17;     // 8 bits
+    private static final int SCORE_SHIFT = 32;   // 32 bits, signed
+
+    private final long[] table;
+    private final int bucketMask;
+    private int age;
+
+    private long probes;
+    private long hits;
+    private long collisions;
+    private long stores;
+
+    /**
+     * @param megabytes memory to use for the table, rounded down to
+     * a power of two number of buckets
+     */
+    public TranspositionTable(int megabytes) {
+        if (megabytes < 1) {
+            throw new IllegalArgumentException("table needs at least 1 MB");
+        }
+        long buckets = ((long) megabytes << 20) / (ENTRY_BYTES * BUCKET_ENTRIES);
+        // largest power of two that fits, and that a long[] can hold
+        int n = Integer.highestOneBit((int) Math.min(buckets, 1 << 26));
+        table = new long[n * BUCKET_ENTRIES * ENTRY_LONGS];
+        bucketMask = n - 1;
+    }
+
+    /**
+     * returns the data word stored for key, 0 if there is none
+     */
+    public long probe(long key) {
+        probes++;
+        int i = index(key);
+        for (int e = 0; e < BUCKET_ENTRIES; e++, i += ENTRY_LONGS) {
+            long data = table[i + 1];
+            if (data != 0 && (table[i] ^ data) == key) {
+                hits++;
+                return data;
+            }
+        }
+        if (table[index(key) + 1] != 0) {
+            // bucket is in use by other positions
+            collisions++;
+        }
+        return 0L;
+    }
+
+    /**
+     * stores a search result for key
+     *
+     * @param move best move found, Position.PASS or NO_MOVE if none
+     * @param depth depth searched
+     * @param flag EXACT, LOWER or UPPER
+     * @param score score of the position for the player to move
+     */
+    public void store(long key, int move, int depth, int flag, int score) {
+        stores++;
+        long data = pack(move, depth, flag, score, age);
+        int i = index(key);
+
+        // depth-preferred slot
+        long old = table[i + 1];
+        if (old == 0 || (table[i] ^ old) == key || depth >= depth(old) || age(old) != age) {
+            table[i] = key ^ data;
+            table[i + 1] = data;
+        } else {
+            // always-replace slot
+            table[i + ENTRY_LONGS] = key ^ data;
+            table[i + ENTRY_LONGS + 1] = data;
+        }
+    }
+
+    /**
+     * marks the start of a new search, so results of older
+     * searches are replaced first
+     */
+    public void newSearch() {
+        age = (age + 1) & 0xff;
+    }
+
+    public void clear() {
+        Arrays.fill(table, 0L);
+        probes = 0;
+        hits = 0;
+        collisions = 0;
+        stores = 0;
+    }
+
+    private int index(long key) {
+        return ((int) (key >>> 32) & bucketMask) * BUCKET_ENTRIES * ENTRY_LONGS;
+    }
+
+    private static long pack(int move, int depth, int flag, int score, int age) {
+        // move is stored + 2 so PASS and NO_MOVE fit, the flag is never 0 so
+        // a used entry never has a 0 data word
+        return ((long) ((move + 2) & 0x7f) << MOVE_SHIFT)
+                | ((long) (depth & 0xff) << DEPTH_SHIFT)
+                | ((long) flag << FLAG_SHIFT)
+                | ((long) age << AGE_SHIFT)
+                | ((long) score << SCORE_SHIFT);
+    }
+
+    public static int move(long data) {
+        return (int) ((data >>> MOVE_SHIFT) & 0x7f) - 2;
+    }
+
+    public static int depth(long data) {
+        return (int) ((data >>> DEPTH_SHIFT) & 0xff);
+    }
+
+    public static int flag(long data) {
+        return (int) ((data >>> FLAG_SHIFT) & 0x3);
+    }
+
+    public static int score(long data) {
+        return (int) (data >> SCORE_SHIFT);
+    }
+
+    private static int age(long data) {
+        return (int) ((data >>> AGE_SHIFT) & 0xff);
+    }
+
+    /**
+     * returns the number of entries the table can hold
+     */
+    public int getCapacity() {
+        return table.length / ENTRY_LONGS;
+    }
+
+    public long getProbes() {
+        return probes;
+    }
+
+    public long getHits() {
+        return hits;
+    }
+
+    public long getCollisions() {
+        return collisions;
+    }
+
+    public long getStores() {
+        return stores;
+    }
+
+    /**
+     * fraction of probes that found the position
+     */
+    public double getHitRate() {
+        return probes == 0 ? 0 : (double) hits / probes;
+    }
+
+    /**
+     * fraction of probes that missed because the bucket was
+     * holding other positions
+     */
+    public double getCollisionRate() {
+        return probes == 0 ? 0 : (double) collisions / probes;
+    }
+}
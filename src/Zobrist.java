@@ -0,0 +1,74 @@
+import java.util.SplittableRandom;
+
+/**
+ * Zobrist hashing of positions
+ *
+ * every (square, colour) pair gets a random 64-bit key and the hash of a
+ * position is the XOR of the keys of all discs, XORed with SIDE when it is
+ * white's turn. playing a move only changes the keys of the placed and 
+ * flipped discs, so the hash can be updated instead of recomputed.
+ */
+public final class Zobrist {
+
+    private static final long SEED = 0x0ce11011L;
+
+    private static final long[] BLACK = new long[Bitboard.SQUARES];
+    private static final long[] WHITE = new long[Bitboard.SQUARES];
+    // BLACK[sq] ^ WHITE[sq], what a flipped disc changes
+    private static final long[] FLIP = new long[Bitboard.SQUARES];
+    public static final long SIDE;
+
+    static {
+        // fixed seed so hashes are the same in every run (and in saved files)
+        SplittableRandom random = new SplittableRandom(SEED);
+        for (int sq = 0; sq < Bitboard.SQUARES; sq++) {
+            BLACK[sq] = random.nextLong();
+            WHITE[sq] = random.nextLong();
+            FLIP[sq] = BLACK[sq] ^ WHITE[sq];
+        }
+        SIDE = random.nextLong();
+    }
+
+    private Zobrist() {
+    }
+
+    /**
+     * returns the hash of the discs only, without the side to move
+     */
+    public static long hash(long black, long white) {
+        long h = 0L;
+        while (black != 0) {
+            h ^= BLACK[Long.numberOfTrailingZeros(black)];
+            black &= black - 1;
+        }
+        while (white != 0) {
+            h ^= WHITE[Long.numberOfTrailingZeros(white)];
+            white &= white - 1;
+        }
+        return h;
+    }
+
+    public static long hash(long black, long white, boolean player1) {
+        return player1 ? hash(black, white) : hash(black, white) ^ SIDE;
+    }
+
+    public static long hash(Position position) {
+        return hash(position.getBlack(), position.getWhite(), position.getCurrentPlayer());
+    }
+
+    /**
+     * returns the hash after a disc is placed on square and the discs in
+     * flips change colour. the side to move is not changed, XOR with SIDE
+     * for that. applying the same move again undoes it.
+     *
+     * @param black true if the disc placed is black
+     */
+    public static long move(long hash, int square, long flips, boolean black) {
+        hash ^= black ? BLACK[square] : WHITE[square];
+        while (flips != 0) {
+            hash ^= FLIP[Long.numberOfTrailingZeros(flips)];
+            flips &= flips - 1;
+        }
+        return hash;
+    }
+}